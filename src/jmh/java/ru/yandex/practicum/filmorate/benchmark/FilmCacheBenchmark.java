@@ -0,0 +1,41 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// пропускная способность чтения фильмов из нескольких потоков с общим кэшем и без него:
+// -p filmCache=true,false, число потоков задается -t (например, -t 1 и -t 4 для сравнения масштабирования)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilmCacheBenchmark {
+
+    @State(Scope.Thread)
+    public static class Ids {
+        final Random random = new Random(Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    public Film findFilmById(SeededContext ctx, Ids ids) {
+        return ctx.filmStorage.findFilmById(ctx.randomFilm(ids.random));
+    }
+
+    @Benchmark
+    public List<Film> findPopularFilms(SeededContext ctx) {
+        return ctx.filmService.findPopularFilms(10);
+    }
+}
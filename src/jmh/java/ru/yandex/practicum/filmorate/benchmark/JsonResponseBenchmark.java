@@ -0,0 +1,68 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.controller.JsonResponseCache;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// тело ответа GET /films/{id} и /films/popular: сериализация Jackson на каждый запрос против готового JSON.
+// Аллокации на операцию - с профилировщиком -prof gc (gc.alloc.rate.norm)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonResponseBenchmark {
+
+    @State(Scope.Thread)
+    public static class Json {
+        final Random random = new Random(Thread.currentThread().getId());
+        ObjectMapper objectMapper;
+        JsonResponseCache jsonCache;
+        EntityVersions versions;
+
+        @Setup(Level.Trial)
+        public void setUp(SeededContext ctx) {
+            objectMapper = ctx.context.getBean(ObjectMapper.class);
+            jsonCache = ctx.context.getBean(JsonResponseCache.class);
+            versions = ctx.context.getBean(EntityVersions.class);
+        }
+    }
+
+    @Benchmark
+    public byte[] filmJackson(SeededContext ctx, Json json) throws Exception {
+        return json.objectMapper.writeValueAsBytes(ctx.filmService.findFilmById(ctx.randomFilm(json.random)));
+    }
+
+    @Benchmark
+    public byte[] filmCached(SeededContext ctx, Json json) {
+        long id = ctx.randomFilm(json.random);
+        return json.jsonCache.get(EntityVersions.Kind.FILM, id, json.versions.etag(EntityVersions.Kind.FILM, id),
+                () -> ctx.filmService.findFilmById(id));
+    }
+
+    @Benchmark
+    public byte[] popularJackson(SeededContext ctx, Json json) throws Exception {
+        return json.objectMapper.writeValueAsBytes(ctx.filmService.findPopularFilms(10));
+    }
+
+    @Benchmark
+    public byte[] popularCached(SeededContext ctx, Json json) {
+        return json.jsonCache.array(EntityVersions.Kind.FILM, ctx.filmService.findPopularFilmIds(10),
+                ctx.filmService::findFilmsByIds, Film::getId);
+    }
+}
@@ -0,0 +1,76 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.framework.AopProxyUtils;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// цена таймеров filmorate.storage: один и тот же метод через прокси с аспектом и напрямую у объекта хранилища.
+// genreById - почти бесплатный вызов из справочника в памяти, на нем видна абсолютная добавка на вызов,
+// filmById - обычный запрос в базу, на нем видна относительная
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Storages {
+        FilmStorage instrumentedFilms;
+        FilmStorage plainFilms;
+        GenreStorage instrumentedGenres;
+        GenreStorage plainGenres;
+
+        @Setup(Level.Trial)
+        public void setUp(SeededContext ctx) {
+            instrumentedFilms = ctx.filmStorage;
+            plainFilms = (FilmStorage) AopProxyUtils.getSingletonTarget(instrumentedFilms);
+            instrumentedGenres = ctx.context.getBean(GenreStorage.class);
+            plainGenres = (GenreStorage) AopProxyUtils.getSingletonTarget(instrumentedGenres);
+            if (plainFilms == null || plainGenres == null) {
+                throw new IllegalStateException("Хранилища не обернуты прокси с метриками");
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Ids {
+        final Random random = new Random(7);
+    }
+
+    @Benchmark
+    public Film filmByIdInstrumented(SeededContext ctx, Storages storages, Ids ids) {
+        return storages.instrumentedFilms.findFilmById(ctx.randomFilm(ids.random));
+    }
+
+    @Benchmark
+    public Film filmByIdPlain(SeededContext ctx, Storages storages, Ids ids) {
+        return storages.plainFilms.findFilmById(ctx.randomFilm(ids.random));
+    }
+
+    @Benchmark
+    public Genre genreByIdInstrumented(Storages storages, Ids ids) {
+        return storages.instrumentedGenres.findGenreById(1L + ids.random.nextInt(6));
+    }
+
+    @Benchmark
+    public Genre genreByIdPlain(Storages storages, Ids ids) {
+        return storages.plainGenres.findGenreById(1L + ids.random.nextInt(6));
+    }
+}
@@ -0,0 +1,169 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.FilmorateApplication;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.PopularFilmsLeaderboard;
+import ru.yandex.practicum.filmorate.service.SimilarFilmsIndex;
+import ru.yandex.practicum.filmorate.service.SocialGraph;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.Fingerprint;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.id.IdAllocator;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+// приложение на отдельной H2 в памяти, заполненное детерминированным набором данных заданного размера.
+// Пользователи с id больше users - резерв для бенчмарков записи: у них нет ни лайков, ни друзей
+@State(Scope.Benchmark)
+public class SeededContext {
+    static final int RESERVED_USERS = 1000;
+    private static final int BATCH = 1000;
+
+    @Param("1000")
+    public int films;
+    @Param("1000")
+    public int users;
+    @Param("20")
+    public int likesPerUser;
+    @Param("20")
+    public int friendsPerUser;
+    @Param("true")
+    public boolean filmCache;
+
+    ConfigurableApplicationContext context;
+    FilmStorage filmStorage;
+    UserStorage userStorage;
+    FilmService filmService;
+    UserService userService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(FilmorateApplication.class)
+                .web(WebApplicationType.NONE)
+                // аргументы командной строки, а не properties(): те имеют низший приоритет
+                // и перекрываются application.properties
+                .run("--spring.datasource.url=jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                        "--filmorate.films.cache.enabled=" + filmCache,
+                        "--filmorate.jdbc.profiler.enabled=false",
+                        "--logging.level.root=WARN",
+                        "--logging.level.ru.yandex.practicum.filmorate=WARN");
+        seed(context.getBean(JdbcTemplate.class), new Random(42));
+        context.getBean(FilmStorage.class).repairLikeCounts();
+        context.getBean(FilmStorage.class).reloadIds();
+        context.getBean(UserStorage.class).reloadIds();
+
+        context.getBean("filmIdAllocator", IdAllocator.class).resync();
+        context.getBean("userIdAllocator", IdAllocator.class).resync();
+        context.getBean(PopularFilmsLeaderboard.class).reload();
+        context.getBean(LikeIndex.class).reload();
+        context.getBean(SimilarFilmsIndex.class).reload();
+        context.getBean(SocialGraph.class).reload();
+
+        filmStorage = context.getBean(FilmStorage.class);
+        userStorage = context.getBean(UserStorage.class);
+        filmService = context.getBean(FilmService.class);
+        userService = context.getBean(UserService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    long randomFilm(Random random) {
+        return 1 + random.nextInt(films);
+    }
+
+    long randomUser(Random random) {
+        return 1 + random.nextInt(users);
+    }
+
+    long reservedUser(Random random) {
+        return users + 1 + random.nextInt(RESERVED_USERS);
+    }
+
+    private void seed(JdbcTemplate jdbcTemplate, Random random) {
+        LocalDate date = LocalDate.of(2000, 1, 1);
+        List<Object[]> rows = new ArrayList<>();
+        List<Object[]> mpa = new ArrayList<>();
+        for (long id = 1; id <= films; id++) {
+            String name = "Фильм " + id;
+            int duration = 60 + random.nextInt(120);
+            rows.add(new Object[]{id, name, "Описание", Date.valueOf(date), duration,
+                    Fingerprint.of(name, "Описание", date, duration)});
+            mpa.add(new Object[]{id, 1 + random.nextInt(5)});
+            if (rows.size() == BATCH) {
+                insertFilms(jdbcTemplate, rows, mpa);
+            }
+        }
+        insertFilms(jdbcTemplate, rows, mpa);
+
+        for (long id = 1; id <= users + RESERVED_USERS; id++) {
+            String login = "login" + id;
+            String email = "user" + id + "@ya.ru";
+            rows.add(new Object[]{id, login, login, email, Date.valueOf(date),
+                    Fingerprint.of(login, login, email, date)});
+            if (rows.size() == BATCH) {
+                batch(jdbcTemplate, "INSERT INTO users (id, login, name, email, birthday, fingerprint) " +
+                        "VALUES (?, ?, ?, ?, ?, ?)", rows);
+            }
+        }
+        batch(jdbcTemplate, "INSERT INTO users (id, login, name, email, birthday, fingerprint) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", rows);
+
+        for (long user = 1; user <= users; user++) {
+            for (long film : distinct(random, Math.min(likesPerUser, films), films, 0)) {
+                rows.add(new Object[]{film, user});
+            }
+            if (rows.size() >= BATCH) {
+                batch(jdbcTemplate, "INSERT INTO likes (film_id, user_id) VALUES (?, ?)", rows);
+            }
+        }
+        batch(jdbcTemplate, "INSERT INTO likes (film_id, user_id) VALUES (?, ?)", rows);
+
+        for (long user = 1; user <= users; user++) {
+            for (long friend : distinct(random, Math.min(friendsPerUser, users - 1), users, user)) {
+                rows.add(new Object[]{user, friend});
+            }
+            if (rows.size() >= BATCH) {
+                batch(jdbcTemplate, "INSERT INTO friends (user_id, friend_id) VALUES (?, ?)", rows);
+            }
+        }
+        batch(jdbcTemplate, "INSERT INTO friends (user_id, friend_id) VALUES (?, ?)", rows);
+    }
+
+    private static void insertFilms(JdbcTemplate jdbcTemplate, List<Object[]> rows, List<Object[]> mpa) {
+        batch(jdbcTemplate, "INSERT INTO films (id, name, description, releasedate, duration, fingerprint) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", rows);
+        batch(jdbcTemplate, "INSERT INTO film_mpa (film_id, mpa_id) VALUES (?, ?)", mpa);
+    }
+
+    private static void batch(JdbcTemplate jdbcTemplate, String sql, List<Object[]> rows) {
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate(sql, rows);
+            rows.clear();
+        }
+    }
+
+    // {count} различных id из 1..bound, кроме exclude
+    private static long[] distinct(Random random, int count, int bound, long exclude) {
+        return random.longs(1, bound + 1).filter(id -> id != exclude).distinct().limit(count).toArray();
+    }
+}
@@ -0,0 +1,60 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// создание фильмов и пользователей через сервисы (с проверкой дубликатов), рейтинг и рекомендации.
+// Стоимость create при разных -p films/-p users показывает, зависит ли она от размера таблицы
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceBenchmarks {
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Ids {
+        final Random random = new Random(11);
+    }
+
+    @Benchmark
+    public Film createFilm(SeededContext ctx) {
+        long n = SEQUENCE.incrementAndGet();
+        return ctx.filmService.create(new Film(null, "Новый фильм " + n, "Описание",
+                LocalDate.of(2000, 1, 1), 100, null, new Mpa(1L, null), null));
+    }
+
+    @Benchmark
+    public User createUser(SeededContext ctx) {
+        long n = SEQUENCE.incrementAndGet();
+        return ctx.userService.create(new User(null, "new" + n, "new" + n, "new" + n + "@ya.ru",
+                LocalDate.of(2000, 1, 1), null));
+    }
+
+    @Benchmark
+    public List<Film> findPopularFilms(SeededContext ctx) {
+        return ctx.filmService.findPopularFilms(10);
+    }
+
+    @Benchmark
+    public List<User> suggestions(SeededContext ctx, Ids ids) {
+        return ctx.userService.suggestions(ctx.randomUser(ids.random), 10);
+    }
+}
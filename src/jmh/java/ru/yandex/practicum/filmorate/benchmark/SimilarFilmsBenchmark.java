@@ -0,0 +1,113 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.service.SimilarFilmsIndex;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// похожие фильмы: LSH против точного поиска по всем фильмам с общими лайкнувшими.
+// Пользователи тяготеют к своей группе фильмов, поэтому у фильмов одной группы высокий коэффициент Жаккара.
+// Полнота top-10 относительно точного поиска пишется в target/jmh-similar-accuracy.json
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimilarFilmsBenchmark {
+    private static final int GROUP = 10;
+    private static final int SAMPLE = 200;
+    private static final int TOP = 10;
+
+    @Param("100000")
+    public int films;
+    @Param("10000000")
+    public int likes;
+    @Param("10")
+    public int likesPerUser;
+
+    private LikeIndex likeIndex;
+    private SimilarFilmsIndex index;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        likeIndex = new LikeIndex(null);
+        Random seeded = new Random(14);
+        int groups = films / GROUP;
+        for (long user = 1; user <= likes / likesPerUser; user++) {
+            int group = seeded.nextInt(groups);
+            for (int i = 0; i < likesPerUser; i++) {
+                long film = seeded.nextInt(10) < 9 ? 1 + group * GROUP + seeded.nextInt(GROUP) : 1 + seeded.nextInt(films);
+                likeIndex.add(film, user);
+            }
+        }
+        index = new SimilarFilmsIndex(likeIndex);
+        long start = System.nanoTime();
+        index.reload();
+        long rebuildMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        random = new Random(15);
+        double recall = 0;
+        for (int i = 0; i < SAMPLE; i++) {
+            long film = 1L + random.nextInt(films);
+            List<Long> exact = exact(film, TOP);
+            if (exact.isEmpty()) {
+                recall += 1;
+                continue;
+            }
+            Set<Long> found = new HashSet<>(index.findSimilar(film, TOP));
+            recall += exact.stream().filter(found::contains).count() / (double) exact.size();
+        }
+        String report = String.format(Locale.ROOT,
+                "{\"films\": %d, \"likes\": %d, \"sample\": %d, \"recallAt%d\": %.4f, \"rebuildMs\": %d}%n",
+                films, likes, SAMPLE, TOP, recall / SAMPLE, rebuildMs);
+        Files.writeString(Path.of("target", "jmh-similar-accuracy.json"), report, StandardCharsets.UTF_8);
+        System.out.print(report);
+    }
+
+    @Benchmark
+    public List<Long> lshSimilar() {
+        return index.findSimilar(1L + random.nextInt(films), TOP);
+    }
+
+    @Benchmark
+    public List<Long> exactSimilar() {
+        return exact(1L + random.nextInt(films), TOP);
+    }
+
+    // точный top-K: коэффициент Жаккара больше нуля только у фильмов с общими лайкнувшими
+    private List<Long> exact(long film, int limit) {
+        Set<Long> users = likeIndex.getUsers(film);
+        Set<Long> candidates = new HashSet<>();
+        for (Long user : users) {
+            candidates.addAll(likeIndex.getFilms(user));
+        }
+        candidates.remove(film);
+        return candidates.stream()
+                .collect(Collectors.toMap(c -> c, c -> SimilarFilmsIndex.jaccard(users, likeIndex.getUsers(c))))
+                .entrySet().stream()
+                .sorted(Map.Entry.<Long, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,66 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.service.SocialGraph;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// возможные друзья на синтетическом графе со степенным распределением: число друзей и популярность
+// пользователя убывают по степенному закону, граф строится в памяти без базы
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SocialGraphBenchmark {
+    @Param("1000000")
+    public int users;
+    @Param("10")
+    public int averageFriends;
+
+    private SocialGraph graph;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        graph = new SocialGraph(null);
+        Random seeded = new Random(12);
+        for (long user = 1; user <= users; user++) {
+            int friends = Math.min(users - 1, (int) (averageFriends / 2.0 / Math.sqrt(1 - seeded.nextDouble())));
+            for (int i = 0; i < friends; i++) {
+                long friend = 1 + (long) (users * Math.pow(seeded.nextDouble(), 3));
+                if (friend != user) {
+                    graph.addEdge(user, friend);
+                }
+            }
+        }
+        graph.compact();
+        random = new Random(13);
+    }
+
+    @Benchmark
+    public long[] suggestions() {
+        return graph.suggestions(1L + random.nextInt(users), 10);
+    }
+
+    @Benchmark
+    public void addAndRemoveEdge() {
+        long user = 1L + random.nextInt(users);
+        long friend = 1L + random.nextInt(users);
+        graph.addEdge(user, friend);
+        graph.removeEdge(user, friend);
+    }
+}
@@ -0,0 +1,65 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// горячие пути FilmDbStorage и UserDbStorage на заполненной базе
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmarks {
+
+    @State(Scope.Thread)
+    public static class Ids {
+        final Random random = new Random(7);
+    }
+
+    @Benchmark
+    public List<Film> findAllFilms(SeededContext ctx) {
+        return ctx.filmStorage.findAll();
+    }
+
+    @Benchmark
+    public Film findFilmById(SeededContext ctx, Ids ids) {
+        return ctx.filmStorage.findFilmById(ctx.randomFilm(ids.random));
+    }
+
+    @Benchmark
+    public List<Film> findPopularFilms(SeededContext ctx) {
+        return ctx.filmStorage.findPopularFilms(10);
+    }
+
+    // лайк и его снятие от резервного пользователя, чтобы набор данных не менялся между итерациями
+    @Benchmark
+    public boolean addAndDeleteLike(SeededContext ctx, Ids ids) {
+        long film = ctx.randomFilm(ids.random);
+        long user = ctx.reservedUser(ids.random);
+        ctx.filmStorage.addLike(film, user);
+        return ctx.filmStorage.deleteLike(film, user);
+    }
+
+    @Benchmark
+    public List<User> getFriends(SeededContext ctx, Ids ids) {
+        return ctx.userStorage.getFriends(ctx.randomUser(ids.random));
+    }
+
+    @Benchmark
+    public List<User> mutualFriendsList(SeededContext ctx, Ids ids) {
+        return ctx.userStorage.mutualFriendsList(ctx.randomUser(ids.random), ctx.randomUser(ids.random));
+    }
+}
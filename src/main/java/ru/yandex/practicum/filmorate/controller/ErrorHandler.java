@@ -1,17 +1,25 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import ru.yandex.practicum.filmorate.exception.*;
+import ru.yandex.practicum.filmorate.metrics.FilmorateMetrics;
 
 import java.util.Map;
 
 
 @RestControllerAdvice
 public class ErrorHandler {
+    private final FilmorateMetrics metrics;
+
+    @Autowired
+    public ErrorHandler(FilmorateMetrics metrics) {
+        this.metrics = metrics;
+    }
 
     @ExceptionHandler
     @ResponseStatus(HttpStatus.BAD_REQUEST)
@@ -20,9 +28,17 @@ public class ErrorHandler {
                 HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ResponseEntity<Map<String, String>> handleIncorrectFormatException(final IncorrectFormatException e) {
+        return new ResponseEntity<>(Map.of("error:", e.getMessage()),
+                HttpStatus.BAD_REQUEST);
+    }
+
     @ExceptionHandler
     @ResponseStatus(HttpStatus.NOT_FOUND)
     public ResponseEntity<Map<String, String>> handleFilmNotFoundException(final FilmNotFoundException e) {
+        metrics.notFound(e);
         return new ResponseEntity<>(Map.of("error:", e.getMessage()),
                 HttpStatus.NOT_FOUND);
     }
@@ -30,6 +46,7 @@ public class ErrorHandler {
     @ExceptionHandler
     @ResponseStatus(HttpStatus.NOT_FOUND)
     public ResponseEntity<Map<String, String>> handleUserNotFoundException(final UserNotFoundException e) {
+        metrics.notFound(e);
         return new ResponseEntity<>(Map.of("error:", e.getMessage()),
                 HttpStatus.NOT_FOUND);
     }
@@ -37,6 +54,7 @@ public class ErrorHandler {
     @ExceptionHandler
     @ResponseStatus(HttpStatus.NOT_FOUND)
     public ResponseEntity<Map<String, String>> handleInvalidIdException(final InvalidIdException e) {
+        metrics.notFound(e);
         return new ResponseEntity<>(Map.of("error:", e.getMessage()),
                 HttpStatus.NOT_FOUND);
     }
@@ -83,6 +101,13 @@ public class ErrorHandler {
                 HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ResponseEntity<Map<String, String>> handleInvalidReferenceException(final InvalidReferenceException e) {
+        return new ResponseEntity<>(Map.of("error:", e.getMessage()),
+                HttpStatus.BAD_REQUEST);
+    }
+
     @ExceptionHandler
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public ResponseEntity<Map<String, String>> handleInvalidEmailException(final InvalidEmailException e) {
@@ -97,9 +122,17 @@ public class ErrorHandler {
                 HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ResponseEntity<Map<String, String>> handleLikeBufferOverflowException(final LikeBufferOverflowException e) {
+        return new ResponseEntity<>(Map.of("error:", e.getMessage()),
+                HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @ExceptionHandler
     @ResponseStatus(HttpStatus.NOT_FOUND)
     public ResponseEntity<Map<String, String>> handleNotFoundException(final NotFoundException e) {
+        metrics.notFound(e);
         return new ResponseEntity<>(Map.of("error:", e.getMessage()),
                 HttpStatus.NOT_FOUND);
     }
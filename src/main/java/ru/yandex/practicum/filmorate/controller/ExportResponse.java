@@ -0,0 +1,16 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import org.springframework.http.MediaType;
+import ru.yandex.practicum.filmorate.service.CatalogExportService;
+
+// тип содержимого потоковой выгрузки: JSON-массив или NDJSON (один объект в строке)
+final class ExportResponse {
+    static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private ExportResponse() {
+    }
+
+    static MediaType contentType(CatalogExportService.Format format) {
+        return format == CatalogExportService.Format.NDJSON ? NDJSON : MediaType.APPLICATION_JSON;
+    }
+}
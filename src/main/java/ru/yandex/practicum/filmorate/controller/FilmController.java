@@ -2,11 +2,24 @@ package ru.yandex.practicum.filmorate.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.model.BulkImportReport;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Page;
+import ru.yandex.practicum.filmorate.service.CatalogExportService;
+import ru.yandex.practicum.filmorate.service.FilmImportService;
 import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 @Slf4j
@@ -14,9 +27,19 @@ import java.util.List;
 @RequestMapping("/films")
 public class FilmController {
     FilmService filmService;
+    FilmImportService filmImportService;
+    CatalogExportService catalogExportService;
+    EntityVersions versions;
+    JsonResponseCache jsonCache;
     @Autowired
-    public FilmController(FilmService filmService) {
+    public FilmController(FilmService filmService, FilmImportService filmImportService,
+                          CatalogExportService catalogExportService, EntityVersions versions,
+                          JsonResponseCache jsonCache) {
         this.filmService = filmService;
+        this.filmImportService = filmImportService;
+        this.catalogExportService = catalogExportService;
+        this.versions = versions;
+        this.jsonCache = jsonCache;
     }
 
     @PostMapping
@@ -25,23 +48,69 @@ public class FilmController {
         return filmService.create(film);
     }
 
+    // POST /films/bulk — пакетная загрузка фильмов, тело запроса в формате NDJSON (один фильм в строке)
+    @PostMapping(value = "/bulk", consumes = {"application/x-ndjson", MediaType.TEXT_PLAIN_VALUE})
+    public BulkImportReport importFilms(InputStream body) throws IOException {
+        log.info("Получен запрос POST/films/bulk - пакетная загрузка фильмов");
+        return filmImportService.importFilms(new InputStreamReader(body, StandardCharsets.UTF_8));
+    }
+
     @PutMapping
     public Film update(@Valid @RequestBody Film film) {
         log.info("Получен запрос PUT/films - обновление фильма с id {}", film.getId());
         return filmService.update(film);
     }
 
+    // GET /films?after={id}&limit={limit} — страница фильмов, курсор следующей страницы в заголовке X-Next-Cursor;
+    // GET /films?unpaged=true — весь список одним массивом; при совпадении If-None-Match ответ 304.
+    // Страница собирается из готового JSON фильмов (JsonResponseCache), из базы читаются только id страницы
     @GetMapping
-    public List<Film> findAll() {
+    public ResponseEntity<?> findAll(@RequestParam(value = "after", required = false) Long after,
+                                              @RequestParam(value = "limit", required = false) Integer limit,
+                                              @RequestParam(value = "unpaged", defaultValue = "false") boolean unpaged,
+                                              WebRequest request) {
         log.info("Получен запрос GET/films - получение списка фильмов");
-        return filmService.findAll();
+        if (request.checkNotModified(versions.etag(EntityVersions.Kind.FILM))) {
+            return null;
+        }
+        if (unpaged) {
+            return ResponseEntity.ok(filmService.findAll());
+        }
+        Page<Long> page = filmService.findPageIds(after, limit);
+        return PageResponse.json(page, jsonCache.array(EntityVersions.Kind.FILM, page.getItems(),
+                filmService::findFilmsByIds, Film::getId));
+    }
+
+    // GET /films/export?format=json|ndjson — потоковая выгрузка всего каталога фильмов
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportFilms(@RequestParam(value = "format", defaultValue = "json") String format) {
+        log.info("Получен запрос GET/films/export - выгрузка всех фильмов");
+        CatalogExportService.Format exportFormat = CatalogExportService.format(format);
+        return ResponseEntity.ok()
+                .contentType(ExportResponse.contentType(exportFormat))
+                .body(out -> catalogExportService.exportFilms(out, exportFormat));
     }
 
-    // GET /films/{id} — поиск фильма по id
+    // GET /films/{id} — поиск фильма по id; при совпадении If-None-Match ответ 304 без обращения к базе,
+    // при неизменившемся ETag тело отдается из JsonResponseCache без загрузки и сериализации фильма
     @GetMapping("/{id}")
-    public Film findFilmById(@PathVariable(value = "id", required = false) Long id) {
+    public ResponseEntity<byte[]> findFilmById(@PathVariable(value = "id", required = false) Long id,
+                                               WebRequest request) {
         log.info("Получен запрос GET/films/{id} - получение фильма по id");
-        return filmService.findFilmById(id);
+        String etag = versions.etag(EntityVersions.Kind.FILM, id);
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return JsonResponseCache.ok(jsonCache.get(EntityVersions.Kind.FILM, id, etag,
+                () -> filmService.findFilmById(id)));
+    }
+
+    // GET /films/{id}/similar?limit={limit} — фильмы с похожим составом лайкнувших пользователей
+    @GetMapping("/{id}/similar")
+    public List<Film> findSimilarFilms(@PathVariable("id") Long id,
+                                       @RequestParam(value = "limit", defaultValue = "10") Integer limit) {
+        log.info("Получен запрос GET /films/{id}/similar — похожие фильмы");
+        return filmService.findSimilarFilms(id, limit);
     }
 
     // PUT /films/{id}/like/{userId} — поставить лайк фильму
@@ -58,11 +127,21 @@ public class FilmController {
         return filmService.deleteLike(id, userId);
     }
 
-    // GET /films/popular?count={count} — возвращает список из первых {count} фильмов по количеству лайков
+    // GET /films/popular?count={count} — возвращает список из первых {count} фильмов по количеству лайков,
+    // массив собирается из готового JSON фильмов, фильмы без готового JSON загружаются через SingleFlight сервиса.
+    // ETag берется до чтения топа, count проверяется до сравнения с If-None-Match
     @GetMapping("/popular")
-    public List<Film> findPopularFilms(@RequestParam(value = "count", defaultValue = "10", required = false) Integer count) {
+    public ResponseEntity<byte[]> findPopularFilms(@RequestParam(value = "count", defaultValue = "10", required = false) Integer count,
+                                       WebRequest request) {
         log.info("Получен запрос GET /films/popular?count={count} — список фильмов по количеству лайков");
-        return filmService.findPopularFilms(count);
+        String etag = versions.etag(EntityVersions.Kind.FILM);
+        List<Long> ids = filmService.findPopularFilmIds(count);
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        log.info("Список популярных фильмов сформирован, фильмов: {}", ids.size());
+        return JsonResponseCache.ok(jsonCache.array(EntityVersions.Kind.FILM, ids,
+                filmService::findFilmsByIds, Film::getId));
     }
 
 }
@@ -6,8 +6,10 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.service.GenreService;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
 
 import java.util.List;
 
@@ -16,22 +18,30 @@ import java.util.List;
 @RequestMapping("/genres")
 public class GenreController {
     GenreService genreService;
+    EntityVersions versions;
     @Autowired
-    public GenreController(GenreService genreService) {
+    public GenreController(GenreService genreService, EntityVersions versions) {
         this.genreService = genreService;
+        this.versions = versions;
     }
 
     // GET /genres — получение списка жанров
     @GetMapping
-    public List<Genre> findAll() {
+    public List<Genre> findAll(WebRequest request) {
         log.info("Получен запрос GET/genres - получение списка жанров");
+        if (request.checkNotModified(versions.etag(EntityVersions.Kind.GENRE))) {
+            return null;
+        }
         return genreService.findAll();
     }
 
     // GET /genres/{id} — поиск жанра по id
     @GetMapping("/{id}")
-    public Genre findGenreById(@PathVariable(value = "id", required = false) Long id) {
+    public Genre findGenreById(@PathVariable(value = "id", required = false) Long id, WebRequest request) {
         log.info("Получен запрос GET/genres/{id} - получение жанра по id");
+        if (request.checkNotModified(versions.etag(EntityVersions.Kind.GENRE))) {
+            return null;
+        }
         return genreService.findGenreById(id);
     }
 
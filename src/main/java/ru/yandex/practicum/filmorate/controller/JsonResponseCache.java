@@ -0,0 +1,149 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// готовый JSON (UTF-8) фильмов и пользователей (filmorate.json.cache.*): повторный GET отдает сохраненные байты
+// без сериализации Jackson, массивы собираются склейкой фрагментов отдельных сущностей.
+// Фрагмент хранится вместе с ETag сущности из EntityVersions, взятым до ее загрузки, поэтому байты не старше
+// своего ETag. Изменение сущности меняет ETag, и старый фрагмент больше не совпадает: кэш инвалидируют
+// те же события, что и ETag, а устаревшие записи перезаписываются при следующем чтении или вытесняются
+@Component
+@Slf4j
+public class JsonResponseCache {
+    private final boolean enabled;
+    private final ObjectMapper objectMapper;
+    private final EntityVersions versions;
+    private final Map<EntityVersions.Kind, Cache<Long, Fragment>> caches = new EnumMap<>(EntityVersions.Kind.class);
+
+    public JsonResponseCache(@Value("${filmorate.json.cache.enabled:true}") boolean enabled,
+                             @Value("${filmorate.json.cache.max-size:10000}") long maxSize,
+                             ObjectMapper objectMapper, EntityVersions versions, MeterRegistry registry) {
+        this.enabled = enabled;
+        this.objectMapper = objectMapper;
+        this.versions = versions;
+        for (EntityVersions.Kind kind : List.of(EntityVersions.Kind.FILM, EntityVersions.Kind.USER)) {
+            Cache<Long, Fragment> cache = Caffeine.newBuilder()
+                    .maximumSize(maxSize)
+                    .recordStats()
+                    .build();
+            CaffeineCacheMetrics.monitor(registry, cache, "json." + kind.name().toLowerCase());
+            caches.put(kind, cache);
+        }
+        log.info("Кэш JSON фильмов и пользователей {}, размер {}", enabled ? "включен" : "выключен", maxSize);
+    }
+
+    // JSON сущности с ETag {etag}; etag нужно получить до вызова, loader загружает сущность при промахе
+    public byte[] get(EntityVersions.Kind kind, Long id, String etag, Supplier<?> loader) {
+        byte[] json = find(kind, id, etag);
+        return json != null ? json : store(kind, id, etag, loader.get());
+    }
+
+    // JSON-массив сущностей в порядке ids: ETag читаются до загрузки, loader получает только id без готового JSON
+    // (по возрастанию, чтобы одинаковые запросы давали одинаковый список для SingleFlight) и может вернуть их
+    // в любом порядке, сущности, которых он не вернул, в массив не попадают
+    public <T> byte[] array(EntityVersions.Kind kind, List<Long> ids, Function<List<Long>, List<T>> loader,
+                            Function<T, Long> idOf) {
+        String[] etags = new String[ids.size()];
+        byte[][] fragments = new byte[ids.size()][];
+        Map<Long, Integer> missing = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            etags[i] = versions.etag(kind, ids.get(i));
+            fragments[i] = find(kind, ids.get(i), etags[i]);
+            if (fragments[i] == null) {
+                missing.put(ids.get(i), i);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<Long> load = new ArrayList<>(missing.keySet());
+            Collections.sort(load);
+            for (T entity : loader.apply(load)) {
+                Integer i = missing.get(idOf.apply(entity));
+                if (i != null) {
+                    fragments[i] = store(kind, ids.get(i), etags[i], entity);
+                }
+            }
+        }
+        return join(fragments);
+    }
+
+    // ответ 200 application/json из готовых байтов
+    static ResponseEntity<byte[]> ok(byte[] json) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json);
+    }
+
+    private byte[] find(EntityVersions.Kind kind, Long id, String etag) {
+        if (!enabled) {
+            return null;
+        }
+        Fragment fragment = caches.get(kind).getIfPresent(id);
+        return fragment != null && fragment.etag.equals(etag) ? fragment.json : null;
+    }
+
+    private byte[] store(EntityVersions.Kind kind, Long id, String etag, Object entity) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(entity);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Не удалось сериализовать " + kind + " с id " + id, e);
+        }
+        if (enabled) {
+            caches.get(kind).put(id, new Fragment(etag, json));
+        }
+        return json;
+    }
+
+    // '[' + фрагменты через ',' + ']' одним массивом байтов
+    private static byte[] join(byte[][] fragments) {
+        int length = 2;
+        int count = 0;
+        for (byte[] fragment : fragments) {
+            if (fragment != null) {
+                length += fragment.length + (count++ > 0 ? 1 : 0);
+            }
+        }
+        byte[] json = new byte[length];
+        int position = 0;
+        json[position++] = '[';
+        for (byte[] fragment : fragments) {
+            if (fragment != null) {
+                if (position > 1) {
+                    json[position++] = ',';
+                }
+                System.arraycopy(fragment, 0, json, position, fragment.length);
+                position += fragment.length;
+            }
+        }
+        json[position] = ']';
+        return json;
+    }
+
+    private static final class Fragment {
+        private final String etag;
+        private final byte[] json;
+
+        private Fragment(String etag, byte[] json) {
+            this.etag = etag;
+            this.json = json;
+        }
+    }
+}
@@ -6,8 +6,10 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.service.MpaService;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
 
 import java.util.List;
 
@@ -16,22 +18,30 @@ import java.util.List;
 @RequestMapping("/mpa")
 public class MpaController {
     MpaService mpaService;
+    EntityVersions versions;
     @Autowired
-    public MpaController(MpaService mpaService) {
+    public MpaController(MpaService mpaService, EntityVersions versions) {
         this.mpaService = mpaService;
+        this.versions = versions;
     }
 
     // GET /mpa — получение списка mpa
     @GetMapping
-    public List<Mpa> findAll() {
+    public List<Mpa> findAll(WebRequest request) {
         log.info("Получен запрос GET/mpa - получение списка mpa");
+        if (request.checkNotModified(versions.etag(EntityVersions.Kind.MPA))) {
+            return null;
+        }
         return mpaService.findAll();
     }
 
     // GET /mpa/{id} — поиск mpa по id
     @GetMapping("/{id}")
-    public Mpa findMpaById(@PathVariable(value = "id", required = false) Long id) {
+    public Mpa findMpaById(@PathVariable(value = "id", required = false) Long id, WebRequest request) {
         log.info("Получен запрос GET/mpa/{id} - получение mpa по id");
+        if (request.checkNotModified(versions.etag(EntityVersions.Kind.MPA))) {
+            return null;
+        }
         return mpaService.findMpaById(id);
     }
 
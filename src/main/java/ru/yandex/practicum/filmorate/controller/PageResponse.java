@@ -0,0 +1,39 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import ru.yandex.practicum.filmorate.model.Page;
+
+import java.util.List;
+
+// тело ответа - массив элементов страницы, курсор следующей страницы передается в заголовках X-Next-Cursor и Link
+final class PageResponse {
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private PageResponse() {
+    }
+
+    static <T> ResponseEntity<List<T>> of(Page<T> page) {
+        return headers(page).body(page.getItems());
+    }
+
+    // страница, тело которой уже собрано в JSON (JsonResponseCache)
+    static ResponseEntity<byte[]> json(Page<?> page, byte[] json) {
+        return headers(page).contentType(MediaType.APPLICATION_JSON).body(json);
+    }
+
+    private static ResponseEntity.BodyBuilder headers(Page<?> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", page.getNextCursor())
+                    .build()
+                    .toUriString();
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(page.getNextCursor()));
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response;
+    }
+}
@@ -2,9 +2,16 @@ package ru.yandex.practicum.filmorate.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.CatalogExportService;
+import ru.yandex.practicum.filmorate.service.RecommendationService;
 import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
 
 import javax.validation.Valid;
 import java.util.List;
@@ -14,9 +21,19 @@ import java.util.List;
 @Slf4j
 public class UserController {
     UserService userService;
+    CatalogExportService catalogExportService;
+    RecommendationService recommendationService;
+    EntityVersions versions;
+    JsonResponseCache jsonCache;
     @Autowired
-    public UserController(UserService userService) {
+    public UserController(UserService userService, CatalogExportService catalogExportService,
+                          RecommendationService recommendationService, EntityVersions versions,
+                          JsonResponseCache jsonCache) {
         this.userService = userService;
+        this.catalogExportService = catalogExportService;
+        this.recommendationService = recommendationService;
+        this.versions = versions;
+        this.jsonCache = jsonCache;
     }
 
     @PostMapping
@@ -31,24 +48,85 @@ public class UserController {
         return userService.update(user);
     }
 
+    // GET /users?after={id}&limit={limit} — страница пользователей, курсор следующей страницы в заголовке X-Next-Cursor;
+    // GET /users?unpaged=true — весь список одним массивом; при совпадении If-None-Match ответ 304
     @GetMapping
-    public List<User> findAll() {
+    public ResponseEntity<List<User>> findAll(@RequestParam(value = "after", required = false) Long after,
+                                              @RequestParam(value = "limit", required = false) Integer limit,
+                                              @RequestParam(value = "unpaged", defaultValue = "false") boolean unpaged,
+                                              WebRequest request) {
         log.info("Получен запрос GET/users - получение списка пользователей");
-        return userService.findAll();
+        if (request.checkNotModified(versions.etag(EntityVersions.Kind.USER))) {
+            return null;
+        }
+        if (unpaged) {
+            return ResponseEntity.ok(userService.findAll());
+        }
+        return PageResponse.of(userService.findPage(after, limit));
     }
 
-    // GET /users/{id} — поиск пользователя по id
+    // GET /users/export?format=json|ndjson — потоковая выгрузка всех пользователей
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportUsers(@RequestParam(value = "format", defaultValue = "json") String format) {
+        log.info("Получен запрос GET/users/export - выгрузка всех пользователей");
+        CatalogExportService.Format exportFormat = CatalogExportService.format(format);
+        return ResponseEntity.ok()
+                .contentType(ExportResponse.contentType(exportFormat))
+                .body(out -> catalogExportService.exportUsers(out, exportFormat));
+    }
+
+    // GET /users/common-friends?ids=1,2,3 — общие друзья нескольких пользователей
+    @GetMapping("/common-friends")
+    public List<User> commonFriends(@RequestParam("ids") List<Long> ids) {
+        log.info("Получен запрос GET/users/common-friends - общие друзья пользователей {}", ids);
+        return userService.commonFriends(ids);
+    }
+
+    // GET /users/{id} — поиск пользователя по id; при совпадении If-None-Match ответ 304 без обращения к базе,
+    // при неизменившемся ETag тело отдается из JsonResponseCache без загрузки и сериализации пользователя
     @GetMapping("/{id}")
-    public User findUserById(@PathVariable(required = false) Long id) {
+    public ResponseEntity<byte[]> findUserById(@PathVariable(required = false) Long id, WebRequest request) {
         log.info("Получен запрос GET/users/{id} - получение пользователя по id");
-        return userService.findUserById(id);
+        String etag = versions.etag(EntityVersions.Kind.USER, id);
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return JsonResponseCache.ok(jsonCache.get(EntityVersions.Kind.USER, id, etag,
+                () -> userService.findUserById(id)));
     }
 
-    // GET /users/{id}/friends - получение списка друзей
+    // GET /users/{id}/friends?after={id}&limit={limit} — страница друзей; ?unpaged=true — весь список
     @GetMapping("/{id}/friends")
-    public List<User> getFriends(@PathVariable("id") Long id) {
+    public ResponseEntity<List<User>> getFriends(@PathVariable("id") Long id,
+                                                 @RequestParam(value = "after", required = false) Long after,
+                                                 @RequestParam(value = "limit", required = false) Integer limit,
+                                                 @RequestParam(value = "unpaged", defaultValue = "false") boolean unpaged,
+                                                 WebRequest request) {
         log.info("Получен запрос GET/users/{id}/friends - получение списка друзей");
-        return userService.getFriends(id);
+        // в ответе данные самих друзей, поэтому ETag по версии всей коллекции пользователей
+        if (request.checkNotModified(versions.etag(EntityVersions.Kind.USER))) {
+            return null;
+        }
+        if (unpaged) {
+            return ResponseEntity.ok(userService.getFriends(id));
+        }
+        return PageResponse.of(userService.getFriendsPage(id, after, limit));
+    }
+
+    // GET /users/{id}/suggestions?limit={limit} — возможные друзья по числу общих друзей
+    @GetMapping("/{id}/suggestions")
+    public List<User> suggestions(@PathVariable("id") Long id,
+                                  @RequestParam(value = "limit", defaultValue = "10") Integer limit) {
+        log.info("Получен запрос GET/users/{id}/suggestions - возможные друзья");
+        return userService.suggestions(id, limit);
+    }
+
+    // GET /users/{id}/recommendations?limit={limit} — фильмы, которые лайкали пользователи с похожими лайками
+    @GetMapping("/{id}/recommendations")
+    public List<Film> recommendations(@PathVariable("id") Long id,
+                                      @RequestParam(value = "limit", defaultValue = "10") Integer limit) {
+        log.info("Получен запрос GET/users/{id}/recommendations - рекомендации фильмов");
+        return recommendationService.recommendations(id, limit);
     }
 
     // PUT /users/{id}/friends/{friendId} — добавление в друзья
@@ -0,0 +1,7 @@
+package ru.yandex.practicum.filmorate.exception;
+
+public class IncorrectFormatException extends RuntimeException {
+    public IncorrectFormatException(String message) {
+        super(message);
+    }
+}
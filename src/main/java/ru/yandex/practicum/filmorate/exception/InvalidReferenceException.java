@@ -0,0 +1,7 @@
+package ru.yandex.practicum.filmorate.exception;
+
+public class InvalidReferenceException extends RuntimeException {
+    public InvalidReferenceException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package ru.yandex.practicum.filmorate.exception;
+
+public class LikeBufferOverflowException extends RuntimeException {
+    public LikeBufferOverflowException(String message) {
+        super(message);
+    }
+}
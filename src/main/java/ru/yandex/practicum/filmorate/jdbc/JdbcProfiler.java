@@ -0,0 +1,165 @@
+package ru.yandex.practicum.filmorate.jdbc;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.StatementBudgetExceededException;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// учет SQL-запросов, выполненных через ProfilingDataSource: число запросов, строк и время
+// в пределах текущей области (HTTP-запрос или блок кода в тесте) и журнал медленных запросов.
+// Область привязана к потоку, запросы из других потоков в нее не попадают
+@Component
+@Slf4j
+public class JdbcProfiler {
+    private static final Logger SLOW_QUERIES = LoggerFactory.getLogger("filmorate.jdbc.slow-query");
+    private static final int MAX_PARAM_LENGTH = 100;
+
+    private final ThreadLocal<Scope> current = new ThreadLocal<>();
+    private final long slowQueryNanos;
+    @Getter
+    private final int statementBudget;
+    private final boolean failOnBudget;
+
+    public JdbcProfiler(@Value("${filmorate.jdbc.profiler.slow-query-ms:200}") long slowQueryMs,
+                        @Value("${filmorate.jdbc.profiler.statement-budget:0}") int statementBudget,
+                        @Value("${filmorate.jdbc.profiler.fail-on-budget:false}") boolean failOnBudget) {
+        this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMs);
+        this.statementBudget = statementBudget;
+        this.failOnBudget = failOnBudget;
+    }
+
+    // новая область учета; запросы вложенной области учитываются и во внешних
+    public Scope open(String name) {
+        return open(name, 0);
+    }
+
+    // область с бюджетом SQL-запросов (0 - без бюджета): бюджет проверяется до выполнения каждого запроса,
+    // поэтому при fail-on-budget лишний запрос не выполняется, а запрос к приложению падает до записи ответа
+    public Scope open(String name, int budget) {
+        Scope scope = new Scope(name, current.get(), budget);
+        current.set(scope);
+        return scope;
+    }
+
+    // выполнение {action} в отдельной области, результат - собранная статистика
+    public Scope profile(String name, Runnable action) {
+        try (Scope scope = open(name)) {
+            action.run();
+            return scope;
+        }
+    }
+
+    // ResultSet оборачивается только ради журнала медленных запросов: время чтения строк нужно лишь ему
+    boolean logsSlowQueries() {
+        return slowQueryNanos > 0;
+    }
+
+    // вызывается перед выполнением запроса: превышение бюджета пишется в лог один раз на область,
+    // при fail-on-budget выполнение прерывается исключением
+    void beforeExecute() {
+        for (Scope s = current.get(); s != null; s = s.parent) {
+            if (s.budget > 0 && s.statements >= s.budget) {
+                String message = String.format("%s: превышен бюджет %d SQL-запросов", s.name, s.budget);
+                if (!s.overBudget) {
+                    s.overBudget = true;
+                    log.warn(message);
+                }
+                if (failOnBudget) {
+                    throw new StatementBudgetExceededException(message);
+                }
+            }
+        }
+    }
+
+    // выполненный запрос; для запросов с ResultSet строки и время чтения добавляет fetched при закрытии ResultSet
+    void executed(String sql, List<Object> params, long nanos, long rows, boolean resultSet) {
+        for (Scope s = current.get(); s != null; s = s.parent) {
+            s.statements++;
+            s.rows += rows;
+            s.nanos += nanos;
+        }
+        if (!resultSet) {
+            checkSlow(sql, params, nanos, rows);
+        }
+    }
+
+    void fetched(String sql, List<Object> params, long executeNanos, long rows, long fetchNanos) {
+        for (Scope s = current.get(); s != null; s = s.parent) {
+            s.rows += rows;
+            s.nanos += fetchNanos;
+        }
+        checkSlow(sql, params, executeNanos + fetchNanos, rows);
+    }
+
+    private void checkSlow(String sql, List<Object> params, long nanos, long rows) {
+        if (slowQueryNanos > 0 && nanos >= slowQueryNanos) {
+            Scope scope = current.get();
+            SLOW_QUERIES.warn("Медленный запрос durationMs={} thresholdMs={} rows={} scope=\"{}\" sql=\"{}\" params={}",
+                    TimeUnit.NANOSECONDS.toMillis(nanos), TimeUnit.NANOSECONDS.toMillis(slowQueryNanos), rows,
+                    scope != null ? scope.name : "", sql.replaceAll("\\s+", " ").trim(), format(params));
+        }
+    }
+
+    private static String format(List<Object> params) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < params.size(); i++) {
+            String value = String.valueOf(params.get(i));
+            sb.append(i > 0 ? ", " : "")
+                    .append(value.length() > MAX_PARAM_LENGTH ? value.substring(0, MAX_PARAM_LENGTH) + "..." : value);
+        }
+        return sb.append(']').toString();
+    }
+
+    @Getter
+    public class Scope implements AutoCloseable {
+        private final String name;
+        @Getter(AccessLevel.NONE)
+        private final Scope parent;
+        private int statements;
+        private long rows;
+        private long nanos;
+        @Getter(AccessLevel.NONE)
+        private final int budget;
+        @Getter(AccessLevel.NONE)
+        private boolean overBudget;
+
+        private Scope(String name, Scope parent, int budget) {
+            this.name = name;
+            this.parent = parent;
+            this.budget = budget;
+        }
+
+        public long getMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        // превышение бюджета пишется в лог, при fail-on-budget или {fail} - еще и исключение
+        public void checkBudget(int budget, boolean fail) {
+            if (budget > 0 && statements > budget) {
+                String message = String.format("%s: выполнено %d SQL-запросов при бюджете %d", name, statements, budget);
+                log.warn(message);
+                if (fail || failOnBudget) {
+                    throw new StatementBudgetExceededException(message);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (current.get() == this) {
+                if (parent != null) {
+                    current.set(parent);
+                } else {
+                    current.remove();
+                }
+            }
+        }
+    }
+}
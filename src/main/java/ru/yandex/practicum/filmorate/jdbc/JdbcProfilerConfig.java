@@ -0,0 +1,31 @@
+package ru.yandex.practicum.filmorate.jdbc;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+// источник данных приложения оборачивается в ProfilingDataSource, только если профилировщик включен
+// (filmorate.jdbc.profiler.enabled, по умолчанию выключен): это средство диагностики и тестов,
+// а не обертка для каждого запроса в рабочем режиме
+@Configuration
+@ConditionalOnProperty(name = "filmorate.jdbc.profiler.enabled")
+public class JdbcProfilerConfig {
+
+    // статический метод, чтобы постпроцессор создавался раньше остальных бинов конфигурации
+    @Bean
+    public static BeanPostProcessor profilingDataSourcePostProcessor(ObjectProvider<JdbcProfiler> profiler) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && !(bean instanceof ProfilingDataSource)) {
+                    return new ProfilingDataSource((DataSource) bean, profiler.getObject());
+                }
+                return bean;
+            }
+        };
+    }
+}
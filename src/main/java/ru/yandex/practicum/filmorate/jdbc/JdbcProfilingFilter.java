@@ -0,0 +1,51 @@
+package ru.yandex.practicum.filmorate.jdbc;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+// область JdbcProfiler на каждый HTTP-запрос: число SQL-запросов попадает в метрику filmorate.request.statements,
+// итог пишется в лог на уровне DEBUG. Бюджет filmorate.jdbc.profiler.statement-budget проверяется по ходу запроса,
+// перед каждым SQL-запросом: превышение пишется в лог на уровне WARN, а при fail-on-budget запрос завершается
+// исключением, пока ответ еще не записан. Работает только при включенном профилировщике
+@Component
+@ConditionalOnProperty(name = "filmorate.jdbc.profiler.enabled")
+@Slf4j
+public class JdbcProfilingFilter extends OncePerRequestFilter {
+    private final JdbcProfiler profiler;
+    private final DistributionSummary statements;
+
+    @Autowired
+    public JdbcProfilingFilter(JdbcProfiler profiler, MeterRegistry registry) {
+        this.profiler = profiler;
+        this.statements = DistributionSummary.builder("filmorate.request.statements")
+                .description("Число SQL-запросов на HTTP-запрос")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        JdbcProfiler.Scope scope = profiler.open(request.getMethod() + " " + request.getRequestURI(),
+                profiler.getStatementBudget());
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            scope.close();
+            statements.record(scope.getStatements());
+            log.debug("{}: SQL-запросов {}, строк {}, {} мс",
+                    scope.getName(), scope.getStatements(), scope.getRows(), scope.getMillis());
+        }
+    }
+}
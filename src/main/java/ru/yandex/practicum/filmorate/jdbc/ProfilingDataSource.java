@@ -0,0 +1,155 @@
+package ru.yandex.practicum.filmorate.jdbc;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// обертка источника данных: соединения и запросы отдаются через динамические прокси,
+// которые засекают время выполнения и запоминают параметры для JdbcProfiler.
+// ResultSet оборачивается (время чтения и число строк) только при включенном журнале медленных запросов
+public class ProfilingDataSource extends DelegatingDataSource {
+    private static final Set<String> EXECUTE = Set.of("execute", "executeQuery", "executeUpdate",
+            "executeLargeUpdate", "executeBatch", "executeLargeBatch");
+    private static final Set<String> PREPARE = Set.of("prepareStatement", "prepareCall");
+
+    private final JdbcProfiler profiler;
+
+    public ProfilingDataSource(DataSource target, JdbcProfiler profiler) {
+        super(target);
+        this.profiler = profiler;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connection(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return connection(super.getConnection(username, password));
+    }
+
+    private Connection connection(Connection target) {
+        return proxy(Connection.class, target, (proxy, method, args) -> {
+            Object result = invoke(target, method, args);
+            if (result instanceof Statement) {
+                String sql = PREPARE.contains(method.getName()) ? (String) args[0] : null;
+                return statement((Statement) result, sql);
+            }
+            return result;
+        });
+    }
+
+    private Statement statement(Statement target, String preparedSql) {
+        List<Object> params = new ArrayList<>();
+        Class<? extends Statement> type = target instanceof CallableStatement ? CallableStatement.class
+                : target instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+
+        return proxy(type, target, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                int index = (Integer) args[0];
+                while (params.size() < index) {
+                    params.add(null);
+                }
+                params.set(index - 1, args[1]);
+            } else if (name.equals("clearParameters")) {
+                params.clear();
+            }
+            if (!EXECUTE.contains(name)) {
+                return invoke(target, method, args);
+            }
+
+            String sql = preparedSql != null ? preparedSql : args != null && args.length > 0 ? (String) args[0] : "";
+            profiler.beforeExecute();
+            long start = System.nanoTime();
+            Object result = invoke(target, method, args);
+            long nanos = System.nanoTime() - start;
+            if (result instanceof ResultSet) {
+                profiler.executed(sql, params, nanos, 0, true);
+                return profiler.logsSlowQueries() ? resultSet((ResultSet) result, sql, new ArrayList<>(params), nanos)
+                        : result;
+            }
+            profiler.executed(sql, params, nanos, updated(result), false);
+            return result;
+        });
+    }
+
+    // строки ResultSet учитываются при закрытии, вместе со временем чтения
+    private ResultSet resultSet(ResultSet target, String sql, List<Object> params, long executeNanos) {
+        long[] rows = {0};
+        long[] nanos = {0};
+        boolean[] closed = {false};
+        return proxy(ResultSet.class, target, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.equals("next")) {
+                long start = System.nanoTime();
+                Object result = invoke(target, method, args);
+                nanos[0] += System.nanoTime() - start;
+                if ((Boolean) result) {
+                    rows[0]++;
+                }
+                return result;
+            }
+            if (name.equals("close") && !closed[0]) {
+                closed[0] = true;
+                profiler.fetched(sql, params, executeNanos, rows[0], nanos[0]);
+            }
+            return invoke(target, method, args);
+        });
+    }
+
+    private static long updated(Object result) {
+        if (result instanceof Number) {
+            return Math.max(0, ((Number) result).longValue());
+        }
+        long rows = 0;
+        if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                rows += Math.max(0, count);
+            }
+        } else if (result instanceof long[]) {
+            for (long count : (long[]) result) {
+                rows += Math.max(0, count);
+            }
+        }
+        return rows;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<? extends T> type, T target, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(ProfilingDataSource.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "unwrap":
+                            return ((Class<?>) args[0]).isInstance(proxy) ? proxy : ((Wrapper) target).unwrap((Class<?>) args[0]);
+                        case "isWrapperFor":
+                            return ((Class<?>) args[0]).isInstance(proxy) || ((Wrapper) target).isWrapperFor((Class<?>) args[0]);
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "Profiling" + target;
+                        default:
+                            return handler.invoke(proxy, method, args);
+                    }
+                });
+    }
+}
@@ -0,0 +1,52 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+// счетчики предметных операций: лайки, дружба, объединенные одновременные чтения
+// и ошибки "не найдено", отданные клиенту через ErrorHandler.
+// Счетчики лайков и дружбы регистрируются заранее, чтобы на горячем пути не искать их в реестре
+@Component
+public class FilmorateMetrics {
+    private final MeterRegistry registry;
+    private final Counter likesAdded;
+    private final Counter likesDeleted;
+    private final Counter friendsAdded;
+    private final Counter friendsDeleted;
+
+    @Autowired
+    public FilmorateMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.likesAdded = registry.counter("filmorate.likes", "operation", "add");
+        this.likesDeleted = registry.counter("filmorate.likes", "operation", "delete");
+        this.friendsAdded = registry.counter("filmorate.friends", "operation", "add");
+        this.friendsDeleted = registry.counter("filmorate.friends", "operation", "delete");
+    }
+
+    public void likeAdded() {
+        likesAdded.increment();
+    }
+
+    public void likeDeleted() {
+        likesDeleted.increment();
+    }
+
+    public void friendAdded() {
+        friendsAdded.increment();
+    }
+
+    public void friendDeleted() {
+        friendsDeleted.increment();
+    }
+
+    // вызов {flight} получил результат чужого одновременного чтения, не обращаясь к хранилищу
+    public void coalesced(String flight) {
+        registry.counter("filmorate.single.flight.coalesced", "flight", flight).increment();
+    }
+
+    public void notFound(RuntimeException e) {
+        registry.counter("filmorate.errors.not.found", "exception", e.getClass().getSimpleName()).increment();
+    }
+}
@@ -0,0 +1,70 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// таймер filmorate.storage на каждый метод интерфейсов хранилищ с тегами storage, method и outcome.
+// Таймеры создаются при первом вызове метода и дальше берутся из карты, без поиска в реестре
+@Aspect
+@Component
+public class StorageMetricsAspect {
+    private final MeterRegistry registry;
+    private final Map<Method, Timers> timers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public StorageMetricsAspect(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Around("execution(* ru.yandex.practicum.filmorate.storage.film.FilmStorage.*(..))"
+            + " || execution(* ru.yandex.practicum.filmorate.storage.user.UserStorage.*(..))"
+            + " || execution(* ru.yandex.practicum.filmorate.storage.genre.GenreStorage.*(..))"
+            + " || execution(* ru.yandex.practicum.filmorate.storage.mpa.MpaStorage.*(..))")
+    public Object time(ProceedingJoinPoint point) throws Throwable {
+        Method method = ((MethodSignature) point.getSignature()).getMethod();
+        Timers methodTimers = timers.get(method);
+        if (methodTimers == null) {
+            methodTimers = timers.computeIfAbsent(method, m -> new Timers(AopUtils.getTargetClass(point.getTarget())
+                    .getSimpleName(), m.getName()));
+        }
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Object result = point.proceed();
+            success = true;
+            return result;
+        } finally {
+            (success ? methodTimers.success : methodTimers.error).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private class Timers {
+        private final Timer success;
+        private final Timer error;
+
+        private Timers(String storage, String method) {
+            this.success = timer(storage, method, "success");
+            this.error = timer(storage, method, "error");
+        }
+
+        private Timer timer(String storage, String method, String outcome) {
+            return Timer.builder("filmorate.storage")
+                    .description("Время вызова метода хранилища")
+                    .tags("storage", storage, "method", method, "outcome", outcome)
+                    .register(registry);
+        }
+    }
+}
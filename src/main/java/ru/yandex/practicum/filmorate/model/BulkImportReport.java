@@ -0,0 +1,32 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class BulkImportReport {
+    long imported;
+    long failed;
+    List<LineError> errors;
+
+    public BulkImportReport(long imported, long failed, List<LineError> errors) {
+        this.imported = imported;
+        this.failed = failed;
+        this.errors = errors;
+    }
+
+    @Data
+    @Builder
+    public static class LineError {
+        long line;
+        String error;
+
+        public LineError(long line, String error) {
+            this.line = line;
+            this.error = error;
+        }
+    }
+}
@@ -1,15 +1,19 @@
 package ru.yandex.practicum.filmorate.model;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Builder;
-import lombok.Data;
+import lombok.Value;
 
-@Data
+// неизменяемый: ReferenceDataRegistry отдает один и тот же экземпляр всем фильмам и клиентам API
+@Value
 @Builder
 public class Mpa {
     Long id;
     String name;
 
-    public Mpa(Long id, String name) {
+    @JsonCreator
+    public Mpa(@JsonProperty("id") Long id, @JsonProperty("name") String name) {
         this.id = id;
         this.name = name;
     }
@@ -0,0 +1,17 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+// страница выборки по курсору: элементы и id, после которого начинается следующая страница (null - страниц больше нет)
+@Data
+public class Page<T> {
+    List<T> items;
+    Long nextCursor;
+
+    public Page(List<T> items, Long nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+}
@@ -0,0 +1,104 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exception.IncorrectFormatException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+// потоковая выгрузка всего каталога: порции из хранилища сразу пишутся в выходной поток
+// JSON-массивом или NDJSON, пиковая память не зависит от размера каталога
+@Service
+@Slf4j
+public class CatalogExportService {
+    public enum Format { JSON, NDJSON }
+
+    private final FilmStorage filmStorage;
+    private final UserStorage userStorage;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter writer;
+    private final int fetchSize;
+    private final int chunkSize;
+
+    @Autowired
+    public CatalogExportService(FilmStorage filmStorage, UserStorage userStorage, ObjectMapper objectMapper,
+                                @Value("${filmorate.export.fetch-size:500}") int fetchSize,
+                                @Value("${filmorate.export.chunk-size:500}") int chunkSize) {
+        this.filmStorage = filmStorage;
+        this.userStorage = userStorage;
+        this.objectMapper = objectMapper;
+        this.writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.fetchSize = fetchSize;
+        this.chunkSize = chunkSize;
+    }
+
+    public static Format format(String value) {
+        try {
+            return Format.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IncorrectFormatException(String.format(
+                    "Неизвестный формат выгрузки %s, допустимы: json, ndjson", value));
+        }
+    }
+
+    // выгрузка всех фильмов, возвращает количество записанных элементов
+    public long exportFilms(OutputStream out, Format format) throws IOException {
+        log.info("Выгрузка всех фильмов в формате {}", format);
+        return this.<Film>export(out, format, consumer -> filmStorage.streamAll(fetchSize, chunkSize, consumer));
+    }
+
+    // выгрузка всех пользователей, возвращает количество записанных элементов
+    public long exportUsers(OutputStream out, Format format) throws IOException {
+        log.info("Выгрузка всех пользователей в формате {}", format);
+        return this.<User>export(out, format, consumer -> userStorage.streamAll(fetchSize, chunkSize, consumer));
+    }
+
+    private <T> long export(OutputStream out, Format format, Consumer<Consumer<List<T>>> source) throws IOException {
+        long[] written = {0};
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            if (format == Format.JSON) {
+                generator.writeStartArray();
+            }
+            try {
+                source.accept(chunk -> {
+                    try {
+                        for (T item : chunk) {
+                            writer.writeValue(generator, item);
+                            if (format == Format.NDJSON) {
+                                generator.writeRaw('\n');
+                            }
+                        }
+                        written[0] += chunk.size();
+                        generator.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (format == Format.JSON) {
+                generator.writeEndArray();
+            }
+        }
+        log.info("Выгружено {} записей", written[0]);
+        return written[0];
+    }
+}
@@ -0,0 +1,370 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
+import ru.yandex.practicum.filmorate.storage.Fingerprint;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.id.IdAllocator;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+// синтетический набор данных для нагрузочного тестирования: пользователи, фильмы с рейтингом и жанрами,
+// лайки и друзья со степенным распределением (популярность фильмов и пользователей - закон Ципфа,
+// число лайков и друзей у пользователя - распределение Парето).
+// Записи делятся на порции по PARTITION, у каждой порции свой генератор случайных чисел от (seed, таблица, порция),
+// поэтому при одном seed набор получается одинаковым независимо от числа потоков и порядка их выполнения
+@Component
+@Slf4j
+public class DatasetGenerator {
+    static final int PARTITION = 10_000;
+    private static final LocalDate MIN_RELEASE_DATE = LocalDate.of(1950, 1, 1);
+    private static final LocalDate MIN_BIRTHDAY = LocalDate.of(1950, 1, 1);
+    private static final int MAX_GENRES = 3;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FilmStorage filmStorage;
+    private final UserStorage userStorage;
+    private final IdAllocator filmIdAllocator;
+    private final IdAllocator userIdAllocator;
+    private final PopularFilmsLeaderboard leaderboard;
+    private final LikeIndex likeIndex;
+    private final SimilarFilmsIndex similarFilms;
+    private final SocialGraph socialGraph;
+    private final EntityVersions versions;
+
+    @Autowired
+    public DatasetGenerator(JdbcTemplate jdbcTemplate, FilmStorage filmStorage, UserStorage userStorage,
+                            @Qualifier("filmIdAllocator") IdAllocator filmIdAllocator,
+                            @Qualifier("userIdAllocator") IdAllocator userIdAllocator,
+                            PopularFilmsLeaderboard leaderboard, LikeIndex likeIndex,
+                            SimilarFilmsIndex similarFilms, SocialGraph socialGraph, EntityVersions versions) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.filmStorage = filmStorage;
+        this.userStorage = userStorage;
+        this.filmIdAllocator = filmIdAllocator;
+        this.userIdAllocator = userIdAllocator;
+        this.leaderboard = leaderboard;
+        this.likeIndex = likeIndex;
+        this.similarFilms = similarFilms;
+        this.socialGraph = socialGraph;
+        this.versions = versions;
+    }
+
+    // набор данных заменяет текущее содержимое таблиц, после загрузки перестраиваются индексы в памяти
+    public void generate(Settings settings) {
+        validate(settings);
+        log.info("Генерация набора данных: {}", settings);
+        long started = System.nanoTime();
+        clear();
+
+        List<Long> mpaIds = jdbcTemplate.queryForList("select id from mpa order by id", Long.class);
+        List<Long> genreIds = jdbcTemplate.queryForList("select id from genre order by id", Long.class);
+        Zipf filmPopularity = new Zipf(settings.getFilms(), settings.getZipfExponent());
+        Zipf userPopularity = new Zipf(settings.getUsers(), settings.getZipfExponent());
+
+        ExecutorService executor = Executors.newFixedThreadPool(settings.getThreads());
+        try {
+            List<Callable<Long>> tasks = new ArrayList<>();
+            forEachPartition(settings.getFilms(), (from, to, partition) ->
+                    tasks.add(() -> insertFilms(settings, from, to, partition, mpaIds, genreIds)));
+            forEachPartition(settings.getUsers(), (from, to, partition) ->
+                    tasks.add(() -> insertUsers(settings, from, to, partition)));
+            run(executor, tasks, "фильмы и пользователи", started);
+
+            List<Callable<long[]>> likes = new ArrayList<>();
+            forEachPartition(settings.getUsers(), (from, to, partition) -> {
+                likes.add(() -> likes(settings, from, to, partition, filmPopularity));
+                tasks.add(() -> insertFriends(settings, from, to, partition, userPopularity));
+            });
+            long[] likeRows = merge(invokeAll(executor, likes, "лайки"));
+            log.info("Сгенерировано лайков: {}, прошло {} мс", likeRows.length, (System.nanoTime() - started) / 1_000_000);
+            int chunk = Math.max(settings.getBatchSize(), likeRows.length / (settings.getThreads() * 4) + 1);
+            for (int from = 0; from < likeRows.length; from += chunk) {
+                int start = from;
+                int end = Math.min(likeRows.length, from + chunk);
+                tasks.add(() -> insertPairs("INSERT INTO likes (film_id, user_id) VALUES (?, ?)",
+                        likeRows, start, end, settings.getBatchSize()));
+            }
+            run(executor, tasks, "лайки и друзья", started);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // лайки вставлены напрямую в LIKES, счетчики фильмов заполняются одним пересчетом
+        filmStorage.repairLikeCounts();
+        filmIdAllocator.resync();
+        userIdAllocator.resync();
+        filmStorage.reloadIds();
+        userStorage.reloadIds();
+        leaderboard.reload();
+        likeIndex.reload();
+        similarFilms.reload();
+        socialGraph.reload();
+        versions.reset();
+        log.info("Набор данных сгенерирован за {} мс", (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private static void validate(Settings settings) {
+        if (settings.getUsers() < 2 || settings.getFilms() < 1 || settings.getLikesPerUser() < 0
+                || settings.getFriendsPerUser() < 0 || settings.getZipfExponent() < 0
+                || settings.getThreads() < 1 || settings.getBatchSize() < 1) {
+            throw new IllegalArgumentException("Недопустимые параметры генерации: " + settings);
+        }
+    }
+
+    private void clear() {
+        jdbcTemplate.update("DELETE FROM FILM_GENRE");
+        jdbcTemplate.update("DELETE FROM FILM_MPA");
+        jdbcTemplate.update("DELETE FROM LIKES");
+        jdbcTemplate.update("DELETE FROM FRIENDS");
+        jdbcTemplate.update("DELETE FROM FILMS");
+        jdbcTemplate.update("DELETE FROM USERS");
+    }
+
+    private static void run(ExecutorService executor, List<Callable<Long>> tasks, String stage, long started) {
+        long rows = 0;
+        for (Long count : invokeAll(executor, tasks, stage)) {
+            rows += count;
+        }
+        tasks.clear();
+        log.info("Загружены {}: {} строк, прошло {} мс", stage, rows, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks, String stage) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Генерация прервана", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка генерации: " + stage, e.getCause());
+        }
+        return results;
+    }
+
+    // лайки всех порций, отсортированные по первичному ключу (film_id, user_id):
+    // вставка по возрастанию ключа идет в соседние страницы индекса и заметно быстрее случайной
+    private static long[] merge(List<long[]> parts) {
+        long[] rows = new long[parts.stream().mapToInt(part -> part.length).sum()];
+        int size = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, rows, size, part.length);
+            size += part.length;
+        }
+        Arrays.parallelSort(rows);
+        return rows;
+    }
+
+    private long insertFilms(Settings settings, long from, long to, int partition,
+                             List<Long> mpaIds, List<Long> genreIds) {
+        SplittableRandom random = random(settings.getSeed(), 1, partition);
+        List<Object[]> films = new ArrayList<>();
+        List<Object[]> mpa = new ArrayList<>();
+        List<Object[]> genres = new ArrayList<>();
+        for (long id = from; id < to; id++) {
+            String name = "Фильм " + id;
+            String description = "Описание фильма " + id;
+            LocalDate releaseDate = MIN_RELEASE_DATE.plusDays(random.nextInt(365 * 74));
+            int duration = 60 + random.nextInt(120);
+            films.add(new Object[]{id, name, description, Date.valueOf(releaseDate), duration,
+                    Fingerprint.of(name, description, releaseDate, duration)});
+            mpa.add(new Object[]{id, mpaIds.get(random.nextInt(mpaIds.size()))});
+            int genreCount = random.nextInt(Math.min(MAX_GENRES, genreIds.size()) + 1);
+            for (int i : random.ints(0, genreIds.size()).distinct().limit(genreCount).toArray()) {
+                genres.add(new Object[]{id, genreIds.get(i)});
+            }
+        }
+        batch("INSERT INTO films (id, name, description, releasedate, duration, fingerprint) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", films, settings.getBatchSize());
+        batch("INSERT INTO film_mpa (film_id, mpa_id) VALUES (?, ?)", mpa, settings.getBatchSize());
+        batch("INSERT INTO film_genre (film_id, genre_id) VALUES (?, ?)", genres, settings.getBatchSize());
+        return films.size() + mpa.size() + genres.size();
+    }
+
+    private long insertUsers(Settings settings, long from, long to, int partition) {
+        SplittableRandom random = random(settings.getSeed(), 2, partition);
+        List<Object[]> users = new ArrayList<>();
+        for (long id = from; id < to; id++) {
+            String login = "user" + id;
+            String name = "Пользователь " + id;
+            String email = login + "@example.com";
+            LocalDate birthday = MIN_BIRTHDAY.plusDays(random.nextInt(365 * 55));
+            users.add(new Object[]{id, login, name, email, Date.valueOf(birthday),
+                    Fingerprint.of(login, name, email, birthday)});
+        }
+        batch("INSERT INTO users (id, login, name, email, birthday, fingerprint) VALUES (?, ?, ?, ?, ?, ?)",
+                users, settings.getBatchSize());
+        return users.size();
+    }
+
+    // лайки порции пользователей парами (film_id, user_id), упакованными в long
+    private static long[] likes(Settings settings, long from, long to, int partition, Zipf filmPopularity) {
+        SplittableRandom random = random(settings.getSeed(), 3, partition);
+        long[] rows = new long[(int) Math.min(Integer.MAX_VALUE - 8, (to - from) * settings.getLikesPerUser() * 2L + 1)];
+        int size = 0;
+        for (long user = from; user < to; user++) {
+            int count = degree(random, settings.getLikesPerUser(), settings.getFilms());
+            for (long film : filmPopularity.distinct(random, count, 0)) {
+                if (size == rows.length) {
+                    rows = Arrays.copyOf(rows, rows.length * 2);
+                }
+                rows[size++] = pack(film, user);
+            }
+        }
+        return Arrays.copyOf(rows, size);
+    }
+
+    // дружба односторонняя, как в UserDbStorage.addFriend; друзья пользователя идут по возрастанию id,
+    // поэтому строки порции уже упорядочены по первичному ключу
+    private long insertFriends(Settings settings, long from, long to, int partition, Zipf userPopularity) {
+        SplittableRandom random = random(settings.getSeed(), 4, partition);
+        long[] rows = new long[(int) ((to - from) * settings.getFriendsPerUser() * 2L) + 1];
+        int size = 0;
+        for (long user = from; user < to; user++) {
+            int count = degree(random, settings.getFriendsPerUser(), settings.getUsers() - 1);
+            long[] friends = userPopularity.distinct(random, count, user);
+            Arrays.sort(friends);
+            for (long friend : friends) {
+                if (size == rows.length) {
+                    rows = Arrays.copyOf(rows, rows.length * 2);
+                }
+                rows[size++] = pack(user, friend);
+            }
+        }
+        return insertPairs("INSERT INTO friends (user_id, friend_id) VALUES (?, ?)",
+                rows, 0, size, settings.getBatchSize());
+    }
+
+    // вставка пар id из rows[from..to) пакетами без упаковки значений в Object[]
+    private long insertPairs(String sql, long[] rows, int from, int to, int batchSize) {
+        for (int start = from; start < to; start += batchSize) {
+            int offset = start;
+            int size = Math.min(batchSize, to - start);
+            jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setLong(1, rows[offset + i] >>> 32);
+                    ps.setLong(2, rows[offset + i] & 0xFFFFFFFFL);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return size;
+                }
+            });
+        }
+        return to - from;
+    }
+
+    private static long pack(long first, long second) {
+        return first << 32 | second;
+    }
+
+    private void batch(String sql, List<Object[]> rows, int batchSize) {
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            jdbcTemplate.batchUpdate(sql, rows.subList(from, Math.min(rows.size(), from + batchSize)));
+        }
+    }
+
+    // число связей пользователя: Парето с показателем 2 и средним около {mean}, не больше {max}
+    private static int degree(SplittableRandom random, int mean, int max) {
+        if (mean == 0) {
+            return 0;
+        }
+        double scale = mean / 2.0;
+        double value = scale / Math.sqrt(1 - random.nextDouble());
+        return (int) Math.min(max, Math.round(value));
+    }
+
+    private static SplittableRandom random(long seed, int table, int partition) {
+        return new SplittableRandom(seed * 0x9E3779B97F4A7C15L + ((long) table << 32) + partition);
+    }
+
+    private static void forEachPartition(int count, PartitionConsumer consumer) {
+        for (int partition = 0; partition * (long) PARTITION < count; partition++) {
+            long from = 1 + (long) partition * PARTITION;
+            consumer.accept(from, Math.min(count + 1L, from + PARTITION), partition);
+        }
+    }
+
+    private interface PartitionConsumer {
+        void accept(long from, long to, int partition);
+    }
+
+    // распределение Ципфа на id 1..n. Ранг переводится в id перестановкой с шагом, взаимно простым с n,
+    // чтобы популярные записи не шли подряд с начала таблицы
+    static class Zipf {
+        private final double[] cdf;
+        private final long step;
+
+        Zipf(int n, double exponent) {
+            cdf = new double[n];
+            double sum = 0;
+            for (int rank = 0; rank < n; rank++) {
+                sum += Math.pow(rank + 1, -exponent);
+                cdf[rank] = sum;
+            }
+            for (int rank = 0; rank < n; rank++) {
+                cdf[rank] /= sum;
+            }
+            long s = Math.max(1, Math.round(n * 0.618));
+            while (gcd(s, n) != 1) {
+                s++;
+            }
+            step = s;
+        }
+
+        long next(SplittableRandom random) {
+            int rank = Arrays.binarySearch(cdf, random.nextDouble());
+            rank = rank >= 0 ? rank : Math.min(cdf.length - 1, -rank - 1);
+            return 1 + rank * step % cdf.length;
+        }
+
+        // {count} различных id, кроме exclude; при сильной концентрации на популярных id
+        // после исчерпания попыток возвращается сколько набралось
+        long[] distinct(SplittableRandom random, int count, long exclude) {
+            Set<Long> ids = new LinkedHashSet<>();
+            for (int attempt = 0; ids.size() < count && attempt < count * 10; attempt++) {
+                long id = next(random);
+                if (id != exclude) {
+                    ids.add(id);
+                }
+            }
+            return ids.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        private static long gcd(long a, long b) {
+            return b == 0 ? a : gcd(b, a % b);
+        }
+    }
+
+    @Data
+    @Builder
+    public static class Settings {
+        private long seed;
+        private int users;
+        private int films;
+        private int likesPerUser;
+        private int friendsPerUser;
+        private double zipfExponent;
+        private int threads;
+        private int batchSize;
+    }
+}
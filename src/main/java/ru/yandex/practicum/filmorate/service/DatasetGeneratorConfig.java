@@ -0,0 +1,38 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+// генерация набора данных при запуске с профилем generate, параметры - в application-generate.properties:
+// java -jar filmorate.jar --spring.profiles.active=generate --filmorate.generator.users=1000000
+@Configuration
+@Profile("generate")
+public class DatasetGeneratorConfig {
+
+    @Bean
+    public CommandLineRunner datasetGeneratorRunner(
+            DatasetGenerator generator,
+            @Value("${filmorate.generator.seed:42}") long seed,
+            @Value("${filmorate.generator.users:100000}") int users,
+            @Value("${filmorate.generator.films:20000}") int films,
+            @Value("${filmorate.generator.likes-per-user:100}") int likesPerUser,
+            @Value("${filmorate.generator.friends-per-user:20}") int friendsPerUser,
+            @Value("${filmorate.generator.zipf-exponent:1.0}") double zipfExponent,
+            @Value("${filmorate.generator.threads:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")
+            int threads,
+            @Value("${filmorate.generator.batch-size:1000}") int batchSize) {
+        return args -> generator.generate(DatasetGenerator.Settings.builder()
+                .seed(seed)
+                .users(users)
+                .films(films)
+                .likesPerUser(likesPerUser)
+                .friendsPerUser(friendsPerUser)
+                .zipfExponent(zipfExponent)
+                .threads(threads)
+                .batchSize(batchSize)
+                .build());
+    }
+}
@@ -0,0 +1,117 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.BulkImportReport;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+// пакетная загрузка фильмов из NDJSON: одна строка - один фильм, вставка порциями по одной транзакции на порцию
+@Service
+@Slf4j
+public class FilmImportService {
+    private final FilmService filmService;
+    private final FilmStorage filmStorage;
+    private final PopularFilmsLeaderboard leaderboard;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+
+    @Autowired
+    public FilmImportService(FilmService filmService, FilmStorage filmStorage, PopularFilmsLeaderboard leaderboard,
+                             TransactionTemplate transactionTemplate, ObjectMapper objectMapper,
+                             @Value("${filmorate.bulk.chunk-size:1000}") int chunkSize) {
+        this.filmService = filmService;
+        this.filmStorage = filmStorage;
+        this.leaderboard = leaderboard;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+    }
+
+    public BulkImportReport importFilms(Reader body) throws IOException {
+        return importFilms(body, chunkSize);
+    }
+
+    // ошибочные строки попадают в отчет и не останавливают загрузку остальных
+    public BulkImportReport importFilms(Reader body, int chunkSize) throws IOException {
+        BufferedReader reader = new BufferedReader(body);
+        List<BulkImportReport.LineError> errors = new ArrayList<>();
+        List<Film> chunk = new ArrayList<>();
+        List<Long> chunkLines = new ArrayList<>();
+        // дубликаты внутри порции ищутся по отпечатку, как в индексе базы: Film.equals для этого ненадежен
+        Map<String, Long> fingerprints = new HashMap<>();
+        long imported = 0;
+        long lineNumber = 0;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                Film film = objectMapper.readValue(line, Film.class);
+                filmService.checkNewFilm(film);
+                Long duplicate = fingerprints.putIfAbsent(filmStorage.fingerprint(film), lineNumber);
+                if (duplicate != null) {
+                    throw new IllegalArgumentException(String.format("Фильм уже есть в строке %d", duplicate));
+                }
+                chunk.add(film);
+                chunkLines.add(lineNumber);
+            } catch (JsonProcessingException e) {
+                errors.add(new BulkImportReport.LineError(lineNumber, "Некорректный JSON: " + e.getOriginalMessage()));
+                continue;
+            } catch (RuntimeException e) {
+                errors.add(new BulkImportReport.LineError(lineNumber, e.getMessage()));
+                continue;
+            }
+
+            if (chunk.size() >= chunkSize) {
+                imported += flush(chunk, chunkLines, errors);
+                fingerprints.clear();
+            }
+        }
+        imported += flush(chunk, chunkLines, errors);
+        errors.sort(Comparator.comparingLong(BulkImportReport.LineError::getLine));
+
+        log.info("Пакетная загрузка завершена: добавлено {}, ошибок {}", imported, errors.size());
+        return new BulkImportReport(imported, errors.size(), errors);
+    }
+
+    // запись порции в одной транзакции; при ошибке базы вся порция попадает в отчет
+    private long flush(List<Film> chunk, List<Long> lines, List<BulkImportReport.LineError> errors) {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        List<Film> films = new ArrayList<>(chunk);
+        try {
+            transactionTemplate.executeWithoutResult(status -> filmStorage.createAll(films));
+        } catch (RuntimeException e) {
+            log.info("Порция из {} фильмов не записана: {}", films.size(), e.getMessage());
+            for (Long line : lines) {
+                errors.add(new BulkImportReport.LineError(line, "Ошибка записи в базу: " + e.getMessage()));
+            }
+            chunk.clear();
+            lines.clear();
+            return 0;
+        }
+
+        for (Film film : films) {
+            leaderboard.addFilm(film.getId());
+        }
+        chunk.clear();
+        lines.clear();
+        return films.size();
+    }
+}
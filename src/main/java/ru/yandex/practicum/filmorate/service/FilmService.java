@@ -2,11 +2,16 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.*;
+import ru.yandex.practicum.filmorate.metrics.FilmorateMetrics;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.reference.ReferenceDataRegistry;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
 import java.time.LocalDate;
@@ -18,23 +23,50 @@ import java.util.List;
 public class FilmService {
     private FilmStorage filmStorage;
     private UserStorage userStorage;
+    private PopularFilmsLeaderboard leaderboard;
+    private Pagination pagination;
+    private SimilarFilmsIndex similarFilms;
+    private FilmorateMetrics metrics;
+    private ReferenceDataRegistry referenceData;
+    // одновременные чтения одного фильма и одного списка фильмов (топа, страницы) объединяются
+    private SingleFlight<Long, Film> filmFlight;
+    private SingleFlight<List<Long>, List<Film>> filmsFlight;
 
     @Autowired
-    public FilmService(FilmStorage filmStorage, UserStorage userStorage) {
+    public FilmService(FilmStorage filmStorage, UserStorage userStorage, PopularFilmsLeaderboard leaderboard,
+                       Pagination pagination, SimilarFilmsIndex similarFilms, FilmorateMetrics metrics,
+                       ReferenceDataRegistry referenceData,
+                       @Value("${filmorate.single-flight.enabled:true}") boolean singleFlight) {
         this.filmStorage = filmStorage;
         this.userStorage = userStorage;
+        this.leaderboard = leaderboard;
+        this.pagination = pagination;
+        this.similarFilms = similarFilms;
+        this.metrics = metrics;
+        this.referenceData = referenceData;
+        this.filmFlight = new SingleFlight<>("film", metrics, singleFlight);
+        this.filmsFlight = new SingleFlight<>("films", metrics, singleFlight);
     }
 
     private final LocalDate oldDate = LocalDate.of(1895, 12, 28);
 
     public Film create(Film film) {
+        checkNewFilm(film);
 
-        if(film.getId() != null && findFilmById(film.getId()) != null) {
+        Film created = filmStorage.create(film);
+        leaderboard.addFilm(created.getId());
+        filmsFlight.forgetAll();
+        return created;
+    }
+
+    // проверки нового фильма, общие для POST /films и пакетной загрузки
+    void checkNewFilm(Film film) {
+        if(film.getId() != null && filmStorage.existsById(film.getId())) {
             log.info("Попытка добавить фильм с уже существующим id");
             throw new FilmAlreadyExistException(String.format("id %d уже существует", film.getId()));
         }
 
-        if(filmStorage.findAll().contains(film)) {
+        if(filmStorage.contains(film)) {
             log.info("Попытка добавить уже существующий фильм");
             throw new FilmAlreadyExistException("Фильм уже существует");
         }
@@ -65,12 +97,29 @@ public class FilmService {
             log.info("Попытка добавить фильм без mpa");
             throw new InvalidNameException("У фильма отсутствует mpa");
         }
+        checkReferences(film);
+    }
 
-        return filmStorage.create(film);
+    // mpa и жанры должны быть в справочниках: иначе запись упадет на внешнем ключе,
+    // а при пакетной загрузке вместе с ней - вся порция
+    private void checkReferences(Film film) {
+        if (film.getMpa() != null && referenceData.getMpa(film.getMpa().getId()) == null) {
+            log.info("Попытка сохранить фильм с несуществующим mpa {}", film.getMpa().getId());
+            throw new InvalidReferenceException(String.format("mpa с id %d не существует", film.getMpa().getId()));
+        }
+        if (film.getGenres() != null) {
+            for (Genre genre : film.getGenres()) {
+                if (genre == null || referenceData.getGenre(genre.getId()) == null) {
+                    log.info("Попытка сохранить фильм с несуществующим жанром");
+                    throw new InvalidReferenceException(String.format("Жанр с id %s не существует",
+                            genre != null ? genre.getId() : null));
+                }
+            }
+        }
     }
 
     public Film update(Film film) {
-        if(film.getId() == null || findFilmById(film.getId()) == null) {
+        if(film.getId() == null || !filmStorage.existsById(film.getId())) {
             log.info("Попытка обновить фильм с несуществующим или пустым id: {}", film.getId());
             throw new InvalidIdException(String.format("Пустой или несуществующий id: %d", film.getId()));
         }
@@ -92,29 +141,54 @@ public class FilmService {
                     "Некорректная продолжительность фильма %d",
                     film.getDuration()));
         }
+        checkReferences(film);
 
-        return filmStorage.update(film);
+        Film updated = filmStorage.update(film);
+        forgetFlights(film.getId());
+        return updated;
     }
 
     public List<Film> findAll() {
         return filmStorage.findAll();
     }
 
+    // страница фильмов после id {after}
+    public Page<Film> findPage(Long after, Integer limit) {
+        int size = pagination.limit(limit);
+        return pagination.page(filmStorage.findPage(pagination.after(after), size + 1), size, Film::getId);
+    }
+
+    // id фильмов страницы после id {after}, сами фильмы - через findFilmsByIds
+    public Page<Long> findPageIds(Long after, Integer limit) {
+        int size = pagination.limit(limit);
+        return pagination.page(filmStorage.findPageIds(pagination.after(after), size + 1), size, id -> id);
+    }
+
+    // фильмы по списку id в том же порядке, несуществующие пропускаются;
+    // одновременные загрузки одного и того же списка объединяются
+    public List<Film> findFilmsByIds(List<Long> ids) {
+        return filmsFlight.execute(List.copyOf(ids), () -> filmStorage.findFilmsByIds(ids));
+    }
+
     // поиск фильма по id
     public Film findFilmById(Long id) {
-        if (filmStorage.findFilmById(id) != null) {
-            return filmStorage.findFilmById(id);
-        } else {
+        Film film = filmFlight.execute(id, () -> filmStorage.findFilmById(id));
+        if (film == null) {
             throw new FilmNotFoundException(String.format("Фильм с id %d не найден", id));
         }
+        return film;
     }
 
     // поставить лайк фильму
     public String addLike(Long id, Long userId) {
         checkId(id, userId);
-        if(userStorage.findUserById(userId) != null) {
-            if (findFilmById(id) != null) {
+        if(userStorage.existsById(userId)) {
+            if (filmStorage.existsById(id)) {
                 filmStorage.addLike(id, userId);
+                leaderboard.addLike(id);
+                similarFilms.addLike(id, userId);
+                forgetFlights(id);
+                metrics.likeAdded();
                 log.info("Фильму с id {} поставлен лайк пользователем {}", id, userId);
                 return String.format("Фильму с id %d поставлен лайк пользователем с id %d", id, userId);
             } else {
@@ -130,9 +204,13 @@ public class FilmService {
     // удалить лайк
     public String deleteLike(Long id, Long userId) {
         checkId(id, userId);
-        if(userStorage.findUserById(userId) != null) {
-            if (findFilmById(id) != null) {
+        if(userStorage.existsById(userId)) {
+            if (filmStorage.existsById(id)) {
                 if (filmStorage.deleteLike(id, userId)) {
+                    leaderboard.deleteLike(id);
+                    similarFilms.deleteLike(id);
+                    forgetFlights(id);
+                    metrics.likeDeleted();
                     log.info("У фильма с id {} удален лайк пользователем {}", id, userId);
                     return String.format("У фильма с id %d удален лайк пользователем с id %d", id, userId);
                 } else {
@@ -150,6 +228,12 @@ public class FilmService {
         }
     }
 
+    // чтения, начатые после изменения фильма, не должны получить результат загрузки, начатой до него
+    private void forgetFlights(Long id) {
+        filmFlight.forget(id);
+        filmsFlight.forgetAll();
+    }
+
     private void checkId(Long id, Long userId) {
         if (id == null || id < 1) {
             log.info("Фильм с пустым или отрицательным id {}");
@@ -164,16 +248,34 @@ public class FilmService {
 
     // список из первых {count} фильмов по количеству лайков
     public List<Film> findPopularFilms(Integer count) {
+        List<Film> list = findFilmsByIds(findPopularFilmIds(count));
+        if (!list.isEmpty()) {
+            log.info("Список популярных фильмов сформирован");
+        } else {
+            log.info("Популярных фильмов нет :( ");
+        }
+        return list;
+    }
+
+    // id первых {count} фильмов по количеству лайков
+    public List<Long> findPopularFilmIds(Integer count) {
         if (count <= 0) {
             throw new IncorrectCountException("count");
         }
+        return leaderboard.getTop(count);
+    }
 
-        if (filmStorage.findPopularFilms(count) != null) {
-            log.info("Список популярных фильмов сформирован");
-            return filmStorage.findPopularFilms(count);
-        } else {
-            log.info("Популярных фильмов нет :( ");
-            return null;
+    // до {limit} фильмов, похожих по множеству лайкнувших пользователей
+    public List<Film> findSimilarFilms(Long id, Integer limit) {
+        if (limit == null || limit <= 0) {
+            throw new IncorrectCountException("limit");
         }
+        if (!filmStorage.existsById(id)) {
+            throw new FilmNotFoundException(String.format("Фильм с id %d не найден", id));
+        }
+
+        List<Film> list = filmStorage.findFilmsByIds(similarFilms.findSimilar(id, limit));
+        log.info("Для фильма с id {} найдено похожих фильмов: {}", id, list.size());
+        return list;
     }
 }
@@ -0,0 +1,45 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.IncorrectCountException;
+import ru.yandex.practicum.filmorate.model.Page;
+
+import java.util.List;
+import java.util.function.Function;
+
+// размер страниц для выборок по курсору (?after=<id>&limit=N)
+@Component
+class Pagination {
+    private final int defaultLimit;
+    private final int maxLimit;
+
+    Pagination(@Value("${filmorate.pagination.default-limit:100}") int defaultLimit,
+               @Value("${filmorate.pagination.max-limit:1000}") int maxLimit) {
+        this.defaultLimit = defaultLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    int limit(Integer requested) {
+        if (requested == null) {
+            return defaultLimit;
+        }
+        if (requested <= 0 || requested > maxLimit) {
+            throw new IncorrectCountException("limit");
+        }
+        return requested;
+    }
+
+    long after(Long after) {
+        return after == null ? 0 : after;
+    }
+
+    // из хранилища запрашивается limit + 1 элемент: лишний элемент означает, что есть следующая страница
+    <T> Page<T> page(List<T> fetched, int limit, Function<T, Long> id) {
+        if (fetched.size() <= limit) {
+            return new Page<>(fetched, null);
+        }
+        List<T> items = fetched.subList(0, limit);
+        return new Page<>(items, id.apply(items.get(limit - 1)));
+    }
+}
@@ -0,0 +1,111 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// рейтинг фильмов по количеству лайков, который хранится в памяти и обновляется при каждом лайке
+@Component
+@Slf4j
+public class PopularFilmsLeaderboard {
+    private static final Comparator<Entry> ORDER = Comparator.comparingLong(Entry::getLikes).reversed()
+            .thenComparingLong(Entry::getFilmId);
+
+    private final FilmStorage filmStorage;
+    private volatile Board board = new Board();
+
+    @Autowired
+    public PopularFilmsLeaderboard(FilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+    }
+
+    // загрузка рейтинга из таблицы LIKES
+    @PostConstruct
+    public void reload() {
+        Board loaded = new Board();
+        for (Map.Entry<Long, Long> e : filmStorage.getLikeCounts().entrySet()) {
+            loaded.likes.put(e.getKey(), e.getValue());
+            loaded.ranking.add(new Entry(e.getKey(), e.getValue()));
+        }
+        board = loaded;
+        log.info("Рейтинг популярных фильмов загружен, фильмов: {}", loaded.likes.size());
+    }
+
+    // новый фильм попадает в рейтинг без лайков
+    public void addFilm(Long id) {
+        board.change(id, 0);
+    }
+
+    public void addLike(Long id) {
+        board.change(id, 1);
+    }
+
+    public void deleteLike(Long id) {
+        board.change(id, -1);
+    }
+
+    // id первых {count} фильмов по количеству лайков
+    public List<Long> getTop(int count) {
+        List<Long> list = new ArrayList<>(Math.min(count, 256));
+        Set<Long> seen = new HashSet<>();
+        for (Entry e : board.ranking) {
+            if (list.size() >= count) {
+                break;
+            }
+            if (seen.add(e.getFilmId())) {
+                list.add(e.getFilmId());
+            }
+        }
+        return list;
+    }
+
+    // сверка рейтинга с таблицей LIKES, расхождения пишутся в лог
+    public boolean checkConsistency() {
+        Map<Long, Long> actual = filmStorage.getLikeCounts();
+        Map<Long, Long> current = new HashMap<>(board.likes);
+        boolean consistent = true;
+
+        for (Map.Entry<Long, Long> e : actual.entrySet()) {
+            Long likes = current.remove(e.getKey());
+            if (!e.getValue().equals(likes)) {
+                log.info("Расхождение рейтинга у фильма с id {}: в памяти {}, в базе {}", e.getKey(), likes, e.getValue());
+                consistent = false;
+            }
+        }
+        for (Long id : current.keySet()) {
+            log.info("В рейтинге есть фильм с id {}, которого нет в базе", id);
+            consistent = false;
+        }
+        return consistent;
+    }
+
+    private static class Board {
+        private final ConcurrentHashMap<Long, Long> likes = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<>(ORDER);
+
+        // изменение счетчика атомарно для фильма: старая позиция удаляется, новая добавляется за O(log n)
+        private void change(Long id, long delta) {
+            likes.compute(id, (k, old) -> {
+                long now = (old == null ? 0 : old) + delta;
+                if (old != null) {
+                    ranking.remove(new Entry(k, old));
+                }
+                ranking.add(new Entry(k, now));
+                return now;
+            });
+        }
+    }
+
+    @Value
+    private static class Entry {
+        long filmId;
+        long likes;
+    }
+}
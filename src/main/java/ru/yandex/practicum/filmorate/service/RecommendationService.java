@@ -0,0 +1,114 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exception.IncorrectCountException;
+import ru.yandex.practicum.filmorate.exception.InvalidIdException;
+import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.LongCounter;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// рекомендации фильмов по совпадению лайков: соседи - пользователи с наибольшим пересечением лайков,
+// фильм получает вес соседей, которые его лайкнули; уже лайкнутые пользователем фильмы исключаются
+@Service
+@Slf4j
+public class RecommendationService {
+    private static final int NEIGHBORS = 50;
+    // ниже этого числа просматриваемых лайков параллельный обход дороже последовательного
+    private static final long PARALLEL_THRESHOLD = 4096;
+
+    private final FilmStorage filmStorage;
+    private final UserStorage userStorage;
+    private final LikeIndex likeIndex;
+
+    @Autowired
+    public RecommendationService(FilmStorage filmStorage, UserStorage userStorage, LikeIndex likeIndex) {
+        this.filmStorage = filmStorage;
+        this.userStorage = userStorage;
+        this.likeIndex = likeIndex;
+    }
+
+    public List<Film> recommendations(Long userId, Integer limit) {
+        if (userId == null || userId < 1) {
+            log.info("Пользователь с пустым или отрицательным id {}", userId);
+            throw new InvalidIdException("Пользователь с пустым или отрицательным id");
+        }
+        if (limit == null || limit < 1) {
+            throw new IncorrectCountException("limit");
+        }
+        if (!userStorage.existsById(userId)) {
+            throw new UserNotFoundException(String.format("Пользователь с id %d не найден", userId));
+        }
+
+        return filmStorage.findFilmsByIds(recommend(userId, limit));
+    }
+
+    // id до {limit} рекомендованных фильмов по убыванию веса, при равенстве - по id
+    public List<Long> recommend(Long userId, int limit) {
+        Long[] liked = likeIndex.getFilms(userId).toArray(new Long[0]);
+        if (liked.length == 0) {
+            return new ArrayList<>();
+        }
+        Set<Long> likedSet = Set.of(liked);
+
+        long work = 0;
+        for (Long filmId : liked) {
+            work += likeIndex.getUsers(filmId).size();
+        }
+        LongCounter overlap = count(liked.length, work, (counter, i) -> {
+            for (Long otherId : likeIndex.getUsers(liked[i])) {
+                if (!otherId.equals(userId)) {
+                    counter.add(otherId, 1);
+                }
+            }
+        });
+
+        long[] neighbors = overlap.top(NEIGHBORS);
+        long candidates = 0;
+        for (long neighbor : neighbors) {
+            candidates += likeIndex.getFilms(neighbor).size();
+        }
+        LongCounter scores = count(neighbors.length, candidates, (counter, i) -> {
+            long weight = overlap.get(neighbors[i]);
+            for (Long filmId : likeIndex.getFilms(neighbors[i])) {
+                if (!likedSet.contains(filmId)) {
+                    counter.add(filmId, weight);
+                }
+            }
+        });
+
+        log.info("Рекомендации для пользователя {}: соседей {}, фильмов-кандидатов {}",
+                userId, neighbors.length, scores.size());
+        return Arrays.stream(scores.top(limit)).boxed().collect(Collectors.toList());
+    }
+
+    // подсчет по элементам 0..items-1: при большом объеме элементы делятся между ядрами,
+    // каждое считает в свой счетчик, затем счетчики складываются
+    private static LongCounter count(int items, long work, ObjIntConsumer<LongCounter> step) {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int chunks = work < PARALLEL_THRESHOLD || parallelism < 2 ? 1 : Math.min(items, parallelism);
+        return IntStream.range(0, chunks)
+                .parallel()
+                .mapToObj(chunk -> {
+                    LongCounter counter = new LongCounter((int) Math.min(work / chunks + 1, 1 << 20));
+                    for (int i = chunk; i < items; i += chunks) {
+                        step.accept(counter, i);
+                    }
+                    return counter;
+                })
+                .reduce(LongCounter::merge)
+                .orElseGet(LongCounter::new);
+    }
+}
@@ -0,0 +1,201 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+// похожие фильмы по множествам лайкнувших пользователей.
+// Для каждого фильма хранится MinHash-сигнатура из HASHES значений, сигнатура режется на BANDS полос по ROWS значений,
+// фильмы с совпадающей полосой попадают в одну корзину (LSH) и становятся кандидатами,
+// кандидаты ранжируются по точному коэффициенту Жаккара
+@Component
+@Slf4j
+public class SimilarFilmsIndex {
+    static final int BANDS = 32;
+    static final int ROWS = 2;
+    static final int HASHES = BANDS * ROWS;
+    private static final long[] SEEDS = new Random(0x5EEDL).longs(HASHES).toArray();
+
+    private final LikeIndex likeIndex;
+    private final Map<Long, int[]> signatures = new ConcurrentHashMap<>();
+    private final List<Map<Long, Set<Long>>> buckets = new ArrayList<>(BANDS);
+
+    @Autowired
+    public SimilarFilmsIndex(LikeIndex likeIndex) {
+        this.likeIndex = likeIndex;
+        for (int band = 0; band < BANDS; band++) {
+            buckets.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    // построение сигнатур по индексу лайков, фильмы обрабатываются параллельно
+    @PostConstruct
+    public void reload() {
+        signatures.clear();
+        buckets.forEach(Map::clear);
+        likeIndex.getFilmUsers().entrySet().parallelStream().forEach(e -> {
+            int[] signature = signature(e.getValue());
+            if (signature != null) {
+                signatures.put(e.getKey(), signature);
+                addToBuckets(e.getKey(), signature);
+            }
+        });
+        log.info("Индекс похожих фильмов построен, фильмов: {}", signatures.size());
+    }
+
+    // лайк может только уменьшить значения сигнатуры
+    public void addLike(Long filmId, Long userId) {
+        signatures.compute(filmId, (id, old) -> {
+            int[] updated = old == null ? empty() : old.clone();
+            for (int i = 0; i < HASHES; i++) {
+                updated[i] = Math.min(updated[i], hash(i, userId));
+            }
+            return replace(id, old, updated);
+        });
+    }
+
+    // после снятия лайка минимум мог принадлежать этому пользователю, сигнатура пересчитывается заново
+    public void deleteLike(Long filmId) {
+        signatures.compute(filmId, (id, old) -> replace(id, old, signature(likeIndex.getUsers(id))));
+    }
+
+    // id до {limit} фильмов по убыванию коэффициента Жаккара, при равенстве - по id
+    public List<Long> findSimilar(Long filmId, int limit) {
+        int[] signature = signatures.get(filmId);
+        if (signature == null) {
+            return new ArrayList<>();
+        }
+        Set<Long> candidates = new HashSet<>();
+        for (int band = 0; band < BANDS; band++) {
+            candidates.addAll(buckets.get(band).getOrDefault(bandKey(signature, band), Set.of()));
+        }
+        candidates.remove(filmId);
+
+        Set<Long> users = likeIndex.getUsers(filmId);
+        Map<Long, Double> similarity = new HashMap<>();
+        for (Long candidate : candidates) {
+            double jaccard = jaccard(users, likeIndex.getUsers(candidate));
+            if (jaccard > 0) {
+                similarity.put(candidate, jaccard);
+            }
+        }
+        return similarity.entrySet().stream()
+                .sorted(Map.Entry.<Long, Double>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    // оценка коэффициента Жаккара по сигнатурам: доля совпавших значений
+    public double estimate(Long filmId, Long otherId) {
+        int[] a = signatures.get(filmId);
+        int[] b = signatures.get(otherId);
+        if (a == null || b == null) {
+            return 0;
+        }
+        int equal = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (a[i] == b[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / HASHES;
+    }
+
+    public static double jaccard(Set<Long> a, Set<Long> b) {
+        if (a.size() > b.size()) {
+            Set<Long> t = a;
+            a = b;
+            b = t;
+        }
+        if (a.isEmpty()) {
+            return 0;
+        }
+        int common = 0;
+        for (Long value : a) {
+            if (b.contains(value)) {
+                common++;
+            }
+        }
+        return (double) common / (a.size() + b.size() - common);
+    }
+
+    private int[] replace(Long filmId, int[] old, int[] updated) {
+        if (old != null && Arrays.equals(old, updated)) {
+            return old;
+        }
+        if (old != null) {
+            removeFromBuckets(filmId, old);
+        }
+        if (updated != null) {
+            addToBuckets(filmId, updated);
+        }
+        return updated;
+    }
+
+    private void addToBuckets(Long filmId, int[] signature) {
+        for (int band = 0; band < BANDS; band++) {
+            buckets.get(band).compute(bandKey(signature, band), (key, films) -> {
+                Set<Long> result = films != null ? films : ConcurrentHashMap.newKeySet();
+                result.add(filmId);
+                return result;
+            });
+        }
+    }
+
+    private void removeFromBuckets(Long filmId, int[] signature) {
+        for (int band = 0; band < BANDS; band++) {
+            buckets.get(band).computeIfPresent(bandKey(signature, band), (key, films) -> {
+                films.remove(filmId);
+                return films.isEmpty() ? null : films;
+            });
+        }
+    }
+
+    private static int[] signature(Set<Long> users) {
+        if (users.isEmpty()) {
+            return null;
+        }
+        int[] signature = empty();
+        for (Long userId : users) {
+            for (int i = 0; i < HASHES; i++) {
+                signature[i] = Math.min(signature[i], hash(i, userId));
+            }
+        }
+        return signature;
+    }
+
+    private static int[] empty() {
+        int[] signature = new int[HASHES];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        return signature;
+    }
+
+    private static long bandKey(int[] signature, int band) {
+        long key = 1;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+            key = key * 0x100000001B3L + signature[row];
+        }
+        return mix(key);
+    }
+
+    private static int hash(int i, long userId) {
+        return (int) (mix(userId ^ SEEDS[i]) >>> 32);
+    }
+
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB9FE1A85EC53L;
+        x ^= x >>> 33;
+        return x;
+    }
+}
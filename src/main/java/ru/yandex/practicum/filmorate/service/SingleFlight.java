@@ -0,0 +1,75 @@
+package ru.yandex.practicum.filmorate.service;
+
+import ru.yandex.practicum.filmorate.metrics.FilmorateMetrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+// объединение одновременных одинаковых чтений: первый вызов по ключу выполняет загрузку,
+// вызовы с тем же ключом, пришедшие до ее окончания, ждут и получают тот же результат или то же исключение.
+// Результат не запоминается - следующий вызов после окончания загрузки начинает новую.
+// Изменение данных должно вызывать forget, иначе чтение после собственной записи может получить
+// результат загрузки, начатой до нее. Объединенные вызовы получают один и тот же объект
+public class SingleFlight<K, V> {
+    private final String name;
+    private final FilmorateMetrics metrics;
+    private final boolean enabled;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+    public SingleFlight(String name, FilmorateMetrics metrics, boolean enabled) {
+        this.name = name;
+        this.metrics = metrics;
+        this.enabled = enabled;
+    }
+
+    public V execute(K key, Supplier<V> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            metrics.coalesced(name);
+            return await(running);
+        }
+        try {
+            V value = loader.get();
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    // новые вызовы по ключу не присоединяются к уже идущей загрузке
+    public void forget(K key) {
+        flights.remove(key);
+    }
+
+    public void forgetAll() {
+        flights.clear();
+    }
+
+    private static <V> V await(CompletableFuture<V> flight) {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// граф дружбы в памяти. Вершина - id пользователя, списки друзей отсортированы.
+// Базовые списки хранятся в формате CSR (offsets/targets), вершины, измененные после построения,
+// держат свой список отдельным массивом до следующего уплотнения
+@Component
+@Slf4j
+public class SocialGraph {
+    private static final int[] EMPTY = new int[0];
+    private static final int MIN_COMPACT_THRESHOLD = 1024;
+
+    private final UserStorage userStorage;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // буферы счетчиков для suggestions размером с граф: в пуле их не больше числа процессоров, поэтому память
+    // не растет с числом потоков сервера; запрос, которому буфера не хватило, берет временный
+    private final Queue<Scratch> scratchPool = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    private int[] offsets = {0};
+    private int[] targets = EMPTY;
+    private int[][] overrides = new int[0][];
+    private int overrideCount;
+    private long edgeCount;
+
+    @Autowired
+    public SocialGraph(UserStorage userStorage) {
+        this.userStorage = userStorage;
+    }
+
+    // построение графа из таблицы FRIENDS, ребра приходят отсортированными по (user_id, friend_id)
+    @PostConstruct
+    public void reload() {
+        int[][] built = {new int[1024], new int[1024]};
+        int[] sizes = {0, 0};
+        int[] maxNode = {-1};
+
+        userStorage.forEachFriendship((userId, friendId) -> {
+            int u = node(userId);
+            int v = node(friendId);
+            while (sizes[0] <= u) {
+                built[0] = grow(built[0], sizes[0] + 1);
+                built[0][sizes[0]++] = sizes[1];
+            }
+            built[1] = grow(built[1], sizes[1] + 1);
+            built[1][sizes[1]++] = v;
+            maxNode[0] = Math.max(maxNode[0], Math.max(u, v));
+        });
+
+        int nodes = maxNode[0] + 1;
+        int[] loadedOffsets = Arrays.copyOf(built[0], nodes + 1);
+        Arrays.fill(loadedOffsets, sizes[0], nodes + 1, sizes[1]);
+
+        lock.writeLock().lock();
+        try {
+            offsets = loadedOffsets;
+            targets = Arrays.copyOf(built[1], sizes[1]);
+            overrides = new int[nodes][];
+            overrideCount = 0;
+            edgeCount = sizes[1];
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Граф дружбы загружен, пользователей: {}, связей: {}", nodes, sizes[1]);
+    }
+
+    public void addEdge(Long userId, Long friendId) {
+        int u = node(userId);
+        int v = node(friendId);
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(Math.max(u, v) + 1);
+            int[] list = neighbors(u);
+            int pos = Arrays.binarySearch(list, v);
+            if (pos >= 0) {
+                return;
+            }
+            int at = -pos - 1;
+            int[] updated = new int[list.length + 1];
+            System.arraycopy(list, 0, updated, 0, at);
+            updated[at] = v;
+            System.arraycopy(list, at, updated, at + 1, list.length - at);
+            edgeCount++;
+            setOverride(u, updated);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeEdge(Long userId, Long friendId) {
+        int u = node(userId);
+        int v = node(friendId);
+        lock.writeLock().lock();
+        try {
+            if (u >= overrides.length) {
+                return;
+            }
+            int[] list = neighbors(u);
+            int at = Arrays.binarySearch(list, v);
+            if (at < 0) {
+                return;
+            }
+            int[] updated = new int[list.length - 1];
+            System.arraycopy(list, 0, updated, 0, at);
+            System.arraycopy(list, at + 1, updated, at, list.length - at - 1);
+            edgeCount--;
+            setOverride(u, updated);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // id друзей пользователя по возрастанию
+    public long[] getFriends(Long userId) {
+        int u = node(userId);
+        lock.readLock().lock();
+        try {
+            if (u >= overrides.length) {
+                return new long[0];
+            }
+            return Arrays.stream(neighbors(u)).asLongStream().toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // до {limit} пользователей, не являющихся друзьями, по убыванию числа общих друзей (при равенстве - по id):
+    // обход на два шага от пользователя со счетчиками в переиспользуемом массиве и ограниченной кучей top-K
+    public long[] suggestions(Long userId, int limit) {
+        int u = node(userId);
+        lock.readLock().lock();
+        try {
+            if (u >= overrides.length || limit < 1) {
+                return new long[0];
+            }
+            Scratch s = scratchPool.poll();
+            if (s == null) {
+                s = new Scratch();
+            }
+            s.ensureCapacity(overrides.length);
+            int[] counts = s.counts;
+
+            int[] friends = neighbors(u);
+            counts[u] = -1;
+            for (int f : friends) {
+                counts[f] = -1;
+            }
+
+            int touched = 0;
+            for (int f : friends) {
+                int[] list = overrides[f];
+                if (list == null && f + 1 >= offsets.length) {
+                    continue;
+                }
+                int from = list != null ? 0 : offsets[f];
+                int to = list != null ? list.length : offsets[f + 1];
+                int[] data = list != null ? list : targets;
+                for (int i = from; i < to; i++) {
+                    int c = data[i];
+                    if (counts[c] >= 0) {
+                        if (counts[c] == 0) {
+                            s.touched = grow(s.touched, touched + 1);
+                            s.touched[touched++] = c;
+                        }
+                        counts[c]++;
+                    }
+                }
+            }
+
+            long[] heap = new long[Math.min(limit, touched)];
+            int heapSize = 0;
+            for (int i = 0; i < touched; i++) {
+                int c = s.touched[i];
+                long key = ((long) counts[c] << 32) | (0xFFFFFFFFL - c);
+                counts[c] = 0;
+                if (heapSize < heap.length) {
+                    heap[heapSize] = key;
+                    siftUp(heap, heapSize++);
+                } else if (heap.length > 0 && key > heap[0]) {
+                    heap[0] = key;
+                    siftDown(heap, heapSize);
+                }
+            }
+            counts[u] = 0;
+            for (int f : friends) {
+                counts[f] = 0;
+            }
+            // в пул возвращается только обнуленный буфер
+            scratchPool.offer(s);
+
+            Arrays.sort(heap, 0, heapSize);
+            long[] result = new long[heapSize];
+            for (int i = 0; i < heapSize; i++) {
+                result[i] = 0xFFFFFFFFL - (heap[heapSize - 1 - i] & 0xFFFFFFFFL);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getEdgeCount() {
+        lock.readLock().lock();
+        try {
+            return edgeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // перенос всех измененных списков обратно в CSR
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            int nodes = overrides.length;
+            int[] compactOffsets = new int[nodes + 1];
+            int[] compactTargets = new int[Math.toIntExact(edgeCount)];
+            int size = 0;
+            for (int u = 0; u < nodes; u++) {
+                compactOffsets[u] = size;
+                int[] list = neighbors(u);
+                System.arraycopy(list, 0, compactTargets, size, list.length);
+                size += list.length;
+            }
+            compactOffsets[nodes] = size;
+
+            offsets = compactOffsets;
+            targets = compactTargets;
+            overrides = new int[nodes][];
+            overrideCount = 0;
+            log.info("Граф дружбы уплотнен, пользователей: {}, связей: {}", nodes, size);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void setOverride(int u, int[] list) {
+        if (overrides[u] == null) {
+            overrideCount++;
+        }
+        overrides[u] = list;
+        if (overrideCount > Math.max(MIN_COMPACT_THRESHOLD, overrides.length / 8)) {
+            compact();
+        }
+    }
+
+    private int[] neighbors(int u) {
+        if (overrides[u] != null) {
+            return overrides[u];
+        }
+        if (u + 1 >= offsets.length) {
+            return EMPTY;
+        }
+        return Arrays.copyOfRange(targets, offsets[u], offsets[u + 1]);
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (overrides.length < nodes) {
+            overrides = Arrays.copyOf(overrides, Math.max(nodes, overrides.length + (overrides.length >> 1)));
+        }
+    }
+
+    private static int node(Long id) {
+        if (id == null || id < 0 || id > Integer.MAX_VALUE - 1) {
+            throw new IllegalArgumentException(String.format("Недопустимый id пользователя %d", id));
+        }
+        return id.intValue();
+    }
+
+    private static int[] grow(int[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= heap[i]) {
+                break;
+            }
+            long t = heap[parent];
+            heap[parent] = heap[i];
+            heap[i] = t;
+            i = parent;
+        }
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int child = left + 1 < size && heap[left + 1] < heap[left] ? left + 1 : left;
+            if (heap[i] <= heap[child]) {
+                break;
+            }
+            long t = heap[child];
+            heap[child] = heap[i];
+            heap[i] = t;
+            i = child;
+        }
+    }
+
+    // счетчики общих друзей из пула, чтобы не выделять массив на каждый запрос
+    private static class Scratch {
+        private int[] counts = EMPTY;
+        private int[] touched = new int[256];
+
+        private void ensureCapacity(int nodes) {
+            if (counts.length < nodes) {
+                counts = new int[Math.max(nodes, counts.length + (counts.length >> 1))];
+            }
+        }
+    }
+}
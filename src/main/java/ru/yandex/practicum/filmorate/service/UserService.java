@@ -3,31 +3,46 @@ package ru.yandex.practicum.filmorate.service;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.*;
+import ru.yandex.practicum.filmorate.metrics.FilmorateMetrics;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 @Service
 @Slf4j
 public class UserService {
     private final UserStorage userStorage;
+    private final Pagination pagination;
+    private final SocialGraph socialGraph;
+    private final FilmorateMetrics metrics;
+    // одновременные чтения одного пользователя объединяются
+    private final SingleFlight<Long, User> userFlight;
 
     @Autowired
-    public UserService(UserStorage userStorage) {
+    public UserService(UserStorage userStorage, Pagination pagination, SocialGraph socialGraph,
+                       FilmorateMetrics metrics, @Value("${filmorate.single-flight.enabled:true}") boolean singleFlight) {
         this.userStorage = userStorage;
+        this.pagination = pagination;
+        this.socialGraph = socialGraph;
+        this.metrics = metrics;
+        this.userFlight = new SingleFlight<>("user", metrics, singleFlight);
     }
 
     @SneakyThrows
     public User create(User user) {
-        if(user.getId() != null && findUserById(user.getId()) != null) {
+        if(user.getId() != null && userStorage.existsById(user.getId())) {
             log.info("Попытка добавить пользователя с уже существующим id");
             throw new UserAlreadyExistException(String.format("id %d уже существует", user.getId()));
         }
-        if(userStorage.findAll().contains(user)) {
+        if(userStorage.contains(user)) {
             log.info("Попытка добавить уже существующего пользователя");
             throw new UserAlreadyExistException("Пользователь уже существует");
         }
@@ -54,7 +69,7 @@ public class UserService {
 
     @SneakyThrows
     public User update(User user) {
-        if(user.getId() == null || findUserById(user.getId()) == null) {
+        if(user.getId() == null || !userStorage.existsById(user.getId())) {
             log.info("Попытка обновить пользователя с пустым или несуществующим id");
             throw new InvalidIdException(String.format("Пользователь с пустым или несуществующим id %d", user.getId()));
         }
@@ -76,28 +91,39 @@ public class UserService {
             log.info("В значение пустого поля name установлен логин пользователя: {}", user.getLogin());
         }
 
-        return userStorage.update(user);
+        User updated = userStorage.update(user);
+        userFlight.forget(user.getId());
+        return updated;
     }
 
     public List<User> findAll() {
         return userStorage.findAll();
     }
 
+    // страница пользователей после id {after}
+    public Page<User> findPage(Long after, Integer limit) {
+        int size = pagination.limit(limit);
+        return pagination.page(userStorage.findPage(pagination.after(after), size + 1), size, User::getId);
+    }
+
     public User findUserById(Long id) {
-        if (userStorage.findUserById(id) != null){
-            return userStorage.findUserById(id);
-        } else {
+        User user = userFlight.execute(id, () -> userStorage.findUserById(id));
+        if (user == null) {
             throw new UserNotFoundException(String.format("Пользователь с id %d не найден", id));
         }
+        return user;
     }
 
     // добавление в друзья
     public String addAsFriend(Long id, Long friendId) {
         checkId(id, friendId);
-        if(findUserById(id) != null) {
-            if (findUserById(friendId) != null) {
+        if(userStorage.existsById(id)) {
+            if (userStorage.existsById(friendId)) {
                 if (!id.equals(friendId)) {
                     userStorage.addAsFriend(id, friendId);
+                    socialGraph.addEdge(id, friendId);
+                    userFlight.forget(id);
+                    metrics.friendAdded();
                     log.info("Пользователь с id {} добавлен в друзья к пользователю {} ", friendId, id);
                     return String.format("Пользователь с id %d  добавлен в друзья к пользователю %d", friendId, id);
                 } else {
@@ -120,7 +146,7 @@ public class UserService {
             log.info("Попытка получить список друзей пользователя с пустым id");
             throw new InvalidIdException("Пользователь с пустым id");
         }
-        if(findUserById(id) == null) {
+        if(!userStorage.existsById(id)) {
             log.info("Попытка получить список друзей пользователя с несуществующим id");
             throw new InvalidIdException(String.format("Пользователь с несуществующим id %d", id));
         }
@@ -128,12 +154,27 @@ public class UserService {
         return userStorage.getFriends(id);
     }
 
+    // страница друзей после id {after}
+    public Page<User> getFriendsPage(Long id, Long after, Integer limit) {
+        if (id == null) {
+            log.info("Попытка получить список друзей пользователя с пустым id");
+            throw new InvalidIdException("Пользователь с пустым id");
+        }
+        checkUserExists(id);
+
+        int size = pagination.limit(limit);
+        return pagination.page(userStorage.getFriendsPage(id, pagination.after(after), size + 1), size, User::getId);
+    }
+
     // удаление из друзей
     public String deleteFromFriend(Long id, Long friendId) {
         checkId(id, friendId);
-        if(findUserById(id) != null) {
-            if (findUserById(friendId) != null) {
+        if(userStorage.existsById(id)) {
+            if (userStorage.existsById(friendId)) {
                 if (userStorage.deleteFromFriend(id, friendId)) {
+                    socialGraph.removeEdge(id, friendId);
+                    userFlight.forget(id);
+                    metrics.friendDeleted();
                     log.info("У пользователя с id {} удален из друзей пользователь с id {}", id, friendId);
                     return String.format("У пользователя с id %d удален из друзей пользователь с id %d", id, friendId);
                 } else {
@@ -157,7 +198,7 @@ public class UserService {
 
         checkId(id, otherId);
 
-        if(findUserById(id) != null && findUserById(otherId) != null) {
+        if(userStorage.existsById(id) && userStorage.existsById(otherId)) {
             log.info("Найдены общие друзья пользователей с id {} и id {}", id, otherId);
             return userStorage.mutualFriendsList(id, otherId);
         } else {
@@ -166,6 +207,51 @@ public class UserService {
         }
     }
 
+    // общие друзья нескольких пользователей
+    public List<User> commonFriends(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            log.info("Попытка найти общих друзей без указания пользователей");
+            throw new InvalidIdException("Не указаны id пользователей");
+        }
+        List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        for (Long id : distinct) {
+            if (id == null || id < 1) {
+                log.info("Пользователь с пустым или отрицательным id {}", id);
+                throw new InvalidIdException("Пользователь с пустым или отрицательным id");
+            }
+            checkUserExists(id);
+        }
+
+        log.info("Найдены общие друзья пользователей с id {}", distinct);
+        return userStorage.commonFriends(distinct);
+    }
+
+    // возможные друзья: пользователи, не являющиеся друзьями, по убыванию числа общих друзей
+    public List<User> suggestions(Long id, Integer limit) {
+        if (id == null || id < 1) {
+            log.info("Пользователь с пустым или отрицательным id {}", id);
+            throw new InvalidIdException("Пользователь с пустым или отрицательным id");
+        }
+        if (limit == null || limit < 1) {
+            throw new IncorrectCountException("limit");
+        }
+        checkUserExists(id);
+
+        List<Long> ids = new ArrayList<>();
+        for (long suggested : socialGraph.suggestions(id, limit)) {
+            ids.add(suggested);
+        }
+        log.info("Для пользователя с id {} найдено возможных друзей: {}", id, ids.size());
+        return userStorage.findUsersByIds(ids);
+    }
+
+    // проверка существования без загрузки пользователя и его друзей
+    private void checkUserExists(Long id) {
+        if (!userStorage.existsById(id)) {
+            throw new UserNotFoundException(String.format("Пользователь с id %d не найден", id));
+        }
+    }
+
     private void checkId(Long id, Long friendId) {
         if (id == null || id < 1 || friendId == null || friendId < 1) {
             log.info("Пользователь с пустым или отрицательным id {}");
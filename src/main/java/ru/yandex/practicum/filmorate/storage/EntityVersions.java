@@ -0,0 +1,73 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// версии сущностей и коллекций для ETag: хранилища увеличивают версию после изменения записи,
+// контроллер сравнивает If-None-Match с текущей версией без обращения к базе.
+// Версия берется из общего счетчика, эпоха меняется при запуске и при полной замене данных,
+// поэтому ETag, выданный до перезапуска, не совпадет с новым содержимым.
+// Версию нужно читать до загрузки сущности, а увеличивать после фиксации транзакции:
+// тогда ответ может получить только более старую версию, чем его содержимое, но не наоборот
+@Component
+public class EntityVersions {
+
+    public enum Kind {
+        FILM, USER, GENRE, MPA
+    }
+
+    private final AtomicLong clock = new AtomicLong();
+    private final Map<Kind, Map<Long, Long>> versions = new EnumMap<>(Kind.class);
+    private final Map<Kind, AtomicLong> collections = new EnumMap<>(Kind.class);
+    private volatile String epoch = newEpoch();
+
+    public EntityVersions() {
+        for (Kind kind : Kind.values()) {
+            versions.put(kind, new ConcurrentHashMap<>());
+            collections.put(kind, new AtomicLong());
+        }
+    }
+
+    // изменение одной сущности меняет и версию коллекции
+    public void bump(Kind kind, Long id) {
+        AfterCommit.run(() -> {
+            long version = clock.incrementAndGet();
+            versions.get(kind).merge(id, version, Math::max);
+            collections.get(kind).accumulateAndGet(version, Math::max);
+        });
+    }
+
+    // изменение коллекции без известных id: добавление записей, перезагрузка справочника
+    public void bump(Kind kind) {
+        AfterCommit.run(() -> collections.get(kind).accumulateAndGet(clock.incrementAndGet(), Math::max));
+    }
+
+    // данные заменены целиком: все выданные ранее ETag перестают совпадать
+    public void reset() {
+        AfterCommit.run(() -> {
+            epoch = newEpoch();
+            versions.values().forEach(Map::clear);
+        });
+    }
+
+    public String etag(Kind kind, Long id) {
+        return etag(versions.get(kind).getOrDefault(id, 0L));
+    }
+
+    public String etag(Kind kind) {
+        return etag(collections.get(kind).get());
+    }
+
+    private String etag(long version) {
+        return "\"" + epoch + "-" + version + "\"";
+    }
+
+    private static String newEpoch() {
+        return Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    }
+}
@@ -0,0 +1,55 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// множество положительных id в виде битовой карты: бит на id, миллион id занимает 125 КБ.
+// Проверка читает массив без блокировок, добавление и замена массива при росте идут под блокировкой,
+// поэтому бит, установленный во время копирования, не теряется
+public final class IdBitmap {
+    private volatile AtomicLongArray words = new AtomicLongArray(1);
+
+    public boolean contains(Long id) {
+        if (id == null || id < 1) {
+            return false;
+        }
+        AtomicLongArray current = words;
+        long word = id >>> 6;
+        return word < current.length() && (current.get((int) word) & (1L << id)) != 0;
+    }
+
+    public synchronized void add(long id) {
+        if (id < 1) {
+            throw new IllegalArgumentException("Недопустимый id " + id);
+        }
+        long word = id >>> 6;
+        if (word >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Слишком большой id " + id);
+        }
+        AtomicLongArray current = words;
+        if (word >= current.length()) {
+            AtomicLongArray grown = new AtomicLongArray(
+                    (int) Math.min(Integer.MAX_VALUE, Math.max(word + 1, current.length() * 2L)));
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            current = grown;
+            words = grown;
+        }
+        int i = (int) word;
+        current.set(i, current.get(i) | (1L << id));
+    }
+
+    // новое содержимое собирается отдельно и подменяет старое целиком
+    public synchronized void replace(long[] ids) {
+        long max = 0;
+        for (long id : ids) {
+            max = Math.max(max, id);
+        }
+        IdBitmap fresh = new IdBitmap();
+        fresh.words = new AtomicLongArray((int) (max >>> 6) + 1);
+        for (long id : ids) {
+            fresh.add(id);
+        }
+        words = fresh.words;
+    }
+}
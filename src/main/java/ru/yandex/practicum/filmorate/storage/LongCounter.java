@@ -0,0 +1,118 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.Arrays;
+
+// счетчики по ключу long на открытой адресации, без упаковки ключей и значений в объекты
+public final class LongCounter {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+
+    public LongCounter() {
+        this(16);
+    }
+
+    public LongCounter(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public void add(long key, long delta) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Недопустимый ключ " + key);
+        }
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                values[i] += delta;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = delta;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+    }
+
+    public long get(long key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public LongCounter merge(LongCounter other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != EMPTY) {
+                add(other.keys[i], other.values[i]);
+            }
+        }
+        return this;
+    }
+
+    // до {limit} ключей по убыванию значения, при равенстве - по возрастанию ключа
+    public long[] top(int limit) {
+        int n = Math.min(limit, size);
+        long[] topKeys = new long[n];
+        long[] topValues = new long[n];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == EMPTY) {
+                continue;
+            }
+            long key = keys[i];
+            long value = values[i];
+            if (count == n && !before(key, value, topKeys[n - 1], topValues[n - 1])) {
+                continue;
+            }
+            int at = count < n ? count++ : n - 1;
+            while (at > 0 && before(key, value, topKeys[at - 1], topValues[at - 1])) {
+                topKeys[at] = topKeys[at - 1];
+                topValues[at] = topValues[at - 1];
+                at--;
+            }
+            topKeys[at] = key;
+            topValues[at] = value;
+        }
+        return topKeys;
+    }
+
+    private static boolean before(long key, long value, long otherKey, long otherValue) {
+        return value > otherValue || (value == otherValue && key < otherKey);
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                add(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,83 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// пересечение отсортированных по возрастанию массивов long без повторов;
+// при сильной разнице размеров меньший массив ищется в большем галопирующим поиском
+public final class SortedLongSets {
+    private static final int GALLOP_RATIO = 32;
+
+    private SortedLongSets() {
+    }
+
+    public static long[] intersect(long[] a, long[] b) {
+        if (a.length > b.length) {
+            long[] t = a;
+            a = b;
+            b = t;
+        }
+        if (a.length == 0) {
+            return new long[0];
+        }
+        return (long) a.length * GALLOP_RATIO < b.length ? gallop(a, b) : merge(a, b);
+    }
+
+    // пересечение k массивов, начиная с самых коротких: промежуточный результат только уменьшается
+    public static long[] intersect(List<long[]> sets) {
+        if (sets.isEmpty()) {
+            return new long[0];
+        }
+        long[][] sorted = sets.toArray(new long[0][]);
+        Arrays.sort(sorted, Comparator.comparingInt(set -> set.length));
+
+        long[] result = sorted[0];
+        for (int i = 1; i < sorted.length && result.length > 0; i++) {
+            result = intersect(result, sorted[i]);
+        }
+        return result;
+    }
+
+    private static long[] merge(long[] a, long[] b) {
+        long[] result = new long[a.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static long[] gallop(long[] small, long[] large) {
+        long[] result = new long[small.length];
+        int from = 0;
+        int n = 0;
+        for (long value : small) {
+            int bound = 1;
+            while (from + bound < large.length && large[from + bound] < value) {
+                bound <<= 1;
+            }
+            int pos = Arrays.binarySearch(large, from, Math.min(from + bound + 1, large.length), value);
+            if (pos >= 0) {
+                result[n++] = value;
+                from = pos + 1;
+            } else {
+                from = -pos - 1;
+            }
+            if (from >= large.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+}
@@ -0,0 +1,104 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// общий для всех запросов кэш фильмов с mpa, жанрами и рейтингом (filmorate.films.cache.*).
+// Вытеснение W-TinyLFU (Caffeine) по числу записей, метрики - cache.gets, cache.evictions и др. с тегом cache=films.
+// Наружу отдаются копии, поэтому изменение полученного фильма не портит кэш.
+// Загрузка из базы и инвалидация идут без общей блокировки: перед загрузкой запоминается номер поколения,
+// после записи в кэш он сверяется еще раз, и если за это время была инвалидация, записанное удаляется.
+// Инвалидация сначала меняет поколение, потом удаляет запись - так устаревший фильм не остается в кэше
+@Component
+@Slf4j
+public class FilmCache {
+    private final boolean enabled;
+    private final Cache<Long, Film> cache;
+    private final AtomicLong generation = new AtomicLong();
+
+    public FilmCache(@Value("${filmorate.films.cache.enabled:true}") boolean enabled,
+                     @Value("${filmorate.films.cache.max-size:10000}") long maxSize,
+                     MeterRegistry registry) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "films");
+        log.info("Кэш фильмов {}, размер {}", enabled ? "включен" : "выключен", maxSize);
+    }
+
+    public Film get(Long id) {
+        if (!enabled) {
+            return null;
+        }
+        Film film = cache.getIfPresent(id);
+        return film != null ? copy(film) : null;
+    }
+
+    // фильмы из кэша по списку id, отсутствующих в результате нет
+    public Map<Long, Film> getAll(Collection<Long> ids) {
+        Map<Long, Film> films = new HashMap<>();
+        if (!enabled) {
+            return films;
+        }
+        for (Map.Entry<Long, Film> e : cache.getAllPresent(ids).entrySet()) {
+            films.put(e.getKey(), copy(e.getValue()));
+        }
+        return films;
+    }
+
+    // номер поколения нужно взять до чтения фильмов из базы и передать в put
+    public long generation() {
+        return generation.get();
+    }
+
+    public void put(long loadedAt, Collection<Film> films) {
+        if (!enabled || films.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(films.size());
+        for (Film film : films) {
+            cache.put(film.getId(), copy(film));
+            ids.add(film.getId());
+        }
+        if (generation.get() != loadedAt) {
+            cache.invalidateAll(ids);
+        }
+    }
+
+    // после фиксации транзакции, чтобы до нее не закэшировать старое содержимое заново
+    public void invalidate(Long id) {
+        AfterCommit.run(() -> {
+            generation.incrementAndGet();
+            cache.invalidate(id);
+        });
+    }
+
+    public void invalidateAll() {
+        AfterCommit.run(() -> {
+            generation.incrementAndGet();
+            cache.invalidateAll();
+        });
+    }
+
+    private static Film copy(Film film) {
+        return new Film(film.getId(), film.getName(), film.getDescription(), film.getReleaseDate(),
+                film.getDuration(), film.getRate(), film.getMpa(),
+                film.getGenres() != null ? new ArrayList<>(film.getGenres()) : null);
+    }
+}
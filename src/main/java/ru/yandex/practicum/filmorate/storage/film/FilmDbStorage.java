@@ -1,21 +1,40 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.exception.FilmNotFoundException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
+import ru.yandex.practicum.filmorate.storage.Fingerprint;
+import ru.yandex.practicum.filmorate.storage.IdBitmap;
 import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.id.IdAllocator;
+import ru.yandex.practicum.filmorate.storage.identity.IdentityMap;
 import ru.yandex.practicum.filmorate.storage.mpa.MpaStorage;
 
+import javax.annotation.PostConstruct;
 import java.sql.Date;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
 
 @Component
 @Primary
@@ -25,28 +44,71 @@ public class FilmDbStorage implements FilmStorage {
     private final JdbcTemplate jdbcTemplate;
     private final MpaStorage mpaStorage;
     private final GenreStorage genreStorage;
-
-    public FilmDbStorage(JdbcTemplate jdbcTemplate, MpaStorage mpaStorage, GenreStorage genreStorage){
+    private final IdAllocator idAllocator;
+    private final LikeWriteBuffer likeBuffer;
+    private final LikeIndex likeIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityVersions versions;
+    private final IdentityMap identityMap;
+    private final FilmCache filmCache;
+    private final boolean repairLikeCountsOnStartup;
+    private final IdBitmap ids = new IdBitmap();
+
+    public FilmDbStorage(JdbcTemplate jdbcTemplate, MpaStorage mpaStorage, GenreStorage genreStorage,
+                         @Qualifier("filmIdAllocator") IdAllocator idAllocator, LikeWriteBuffer likeBuffer,
+                         LikeIndex likeIndex, TransactionTemplate transactionTemplate, EntityVersions versions,
+                         IdentityMap identityMap, FilmCache filmCache,
+                         @Value("${filmorate.likes.repair-on-startup:true}") boolean repairLikeCountsOnStartup){
         this.jdbcTemplate = jdbcTemplate;
         this.mpaStorage = mpaStorage;
         this.genreStorage = genreStorage;
+        this.idAllocator = idAllocator;
+        this.likeBuffer = likeBuffer;
+        this.likeIndex = likeIndex;
+        this.transactionTemplate = transactionTemplate;
+        this.versions = versions;
+        this.identityMap = identityMap;
+        this.filmCache = filmCache;
+        this.repairLikeCountsOnStartup = repairLikeCountsOnStartup;
+    }
+
+    // счетчик like_count добавлен к уже заполненной таблице, поэтому при запуске он сверяется с LIKES
+    @PostConstruct
+    public void init() {
+        if (repairLikeCountsOnStartup) {
+            repairLikeCounts();
+        }
+        reloadIds();
+    }
+
+    // id всех фильмов для existsById; нужно после изменения таблицы в обход хранилища,
+    // поэтому сбрасываются и кэш, и версии (id удаленных фильмов могут достаться новым)
+    @Override
+    public void reloadIds() {
+        filmCache.invalidateAll();
+        versions.reset();
+        ids.replace(jdbcTemplate.queryForList("select id from films", Long.class).stream()
+                .mapToLong(Long::longValue).toArray());
+        log.info("Загружены id фильмов для проверки существования");
+    }
+
+    // проверка существования без запроса к базе
+    @Override
+    public boolean existsById(Long id) {
+        return ids.contains(id);
     }
 
     @Override
     public Film create(Film film) {
-        Long idn = 1L;
-        SqlRowSet fr = jdbcTemplate.queryForRowSet("SELECT id FROM FILMS ORDER BY id DESC LIMIT 1");
-        if (fr.next()) {
-            idn = fr.getLong("id");
-            log.info("Последний установленный id: {}", idn);
-            idn++;
-        }
-        film.setId(idn);
-        log.info("Установлен id фильма: {}", idn);
+        film.setId(idAllocator.nextId());
+        log.info("Установлен id фильма: {}", film.getId());
 
-        String sql = "INSERT INTO FILMS (id, name, description, releasedate, duration) VALUES (?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO FILMS (id, name, description, releasedate, duration, fingerprint) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
         jdbcTemplate.update(sql, film.getId(), film.getName(), film.getDescription(),
-                Date.valueOf(film.getReleaseDate()), film.getDuration());
+                Date.valueOf(film.getReleaseDate()), film.getDuration(), fingerprint(film));
+        Long id = film.getId();
+        AfterCommit.run(() -> ids.add(id));
         log.info("Добавлен новый фильм: {}", film);
 
         if(film.getMpa() != null) {
@@ -57,10 +119,50 @@ public class FilmDbStorage implements FilmStorage {
             log.info("Список жанров не пустой {}", film.getGenres());
             genreStorage.addGenre(film);
         }
+        versions.bump(EntityVersions.Kind.FILM, film.getId());
 
         return findFilmById(film.getId());
     }
 
+    // пакетная вставка фильмов вместе с mpa и жанрами; id присваиваются из того же аллокатора, что и в create
+    @Override
+    public void createAll(List<Film> films) {
+        List<Object[]> filmRows = new ArrayList<>();
+        List<Object[]> mpaRows = new ArrayList<>();
+        List<Object[]> genreRows = new ArrayList<>();
+
+        for (Film film : films) {
+            film.setId(idAllocator.nextId());
+            filmRows.add(new Object[]{film.getId(), film.getName(), film.getDescription(),
+                    Date.valueOf(film.getReleaseDate()), film.getDuration(), fingerprint(film)});
+            if (film.getMpa() != null) {
+                mpaRows.add(new Object[]{film.getId(), film.getMpa().getId()});
+            }
+            if (film.getGenres() != null) {
+                Set<Long> genreIds = new LinkedHashSet<>();
+                for (Genre g : film.getGenres()) {
+                    genreIds.add(g.getId());
+                }
+                for (Long genreId : genreIds) {
+                    genreRows.add(new Object[]{film.getId(), genreId});
+                }
+            }
+        }
+
+        jdbcTemplate.batchUpdate("INSERT INTO FILMS (id, name, description, releasedate, duration, fingerprint) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", filmRows);
+        jdbcTemplate.batchUpdate("INSERT INTO FILM_MPA (film_id, mpa_id) VALUES (?, ?)", mpaRows);
+        jdbcTemplate.batchUpdate("INSERT INTO FILM_GENRE (film_id, genre_id) VALUES (?, ?)", genreRows);
+        long[] created = filmRows.stream().mapToLong(row -> (Long) row[0]).toArray();
+        AfterCommit.run(() -> {
+            for (long id : created) {
+                ids.add(id);
+            }
+        });
+        versions.bump(EntityVersions.Kind.FILM);
+        log.info("Пакетно добавлено фильмов: {}, mpa: {}, жанров: {}", filmRows.size(), mpaRows.size(), genreRows.size());
+    }
+
     private Film makeFilm(ResultSet rs) throws SQLException {
         Film film = Film.builder()
                 .id(rs.getLong("id"))
@@ -68,9 +170,7 @@ public class FilmDbStorage implements FilmStorage {
                 .description(rs.getString("description"))
                 .releaseDate(rs.getDate("releasedate").toLocalDate())
                 .duration(rs.getLong("duration"))
-                .rate(getCountLikes(rs.getLong("id")))
-                .mpa(mpaStorage.getMpa(rs.getLong("id")))
-                .genres(genreStorage.getGenre(rs.getLong("id")))
+                .rate(rs.getLong("like_count"))
                 .build();
 
         if (film == null) {
@@ -79,15 +179,51 @@ public class FilmDbStorage implements FilmStorage {
         return film;
     }
 
+    // догрузка mpa и жанров сразу для всего набора фильмов: два запроса независимо от размера набора.
+    // Количество лайков читается из like_count вместе с фильмом. При отложенной записи like_count перечитывается
+    // под блокировкой буфера: запись буфера между чтением фильмов и поправкой посчитала бы лайки дважды или потеряла их
+    private List<Film> hydrate(List<Film> films) {
+        if (films.isEmpty()) {
+            return films;
+        }
+        Long[] ids = films.stream().map(Film::getId).toArray(Long[]::new);
+        log.info("Загрузка mpa и жанров для {} фильмов", ids.length);
+
+        Map<Long, Long> likes = likeBuffer.countLikes(ids, () -> {
+            Map<Long, Long> counts = new HashMap<>();
+            if (likeBuffer.isEnabled()) {
+                jdbcTemplate.query("select id, like_count from films where id = ANY(?)", rs -> {
+                    counts.put(rs.getLong("id"), rs.getLong("like_count"));
+                }, (Object) ids);
+            } else {
+                for (Film film : films) {
+                    counts.put(film.getId(), film.getRate());
+                }
+            }
+            return counts;
+        });
+        Map<Long, Mpa> mpa = mpaStorage.getMpaByFilmIds(ids);
+        Map<Long, List<Genre>> genres = genreStorage.getGenresByFilmIds(ids);
+
+        for (Film film : films) {
+            film.setRate(likes.getOrDefault(film.getId(), 0L));
+            film.setMpa(mpa.get(film.getId()));
+            film.setGenres(genres.getOrDefault(film.getId(), new ArrayList<>()));
+        }
+        return films;
+    }
+
     @Override
     public Film update(Film film) {
-        String sql = "UPDATE FILMS SET name = ?, description = ?, releasedate = ?, duration = ? WHERE id = ?";
+        String sql = "UPDATE FILMS SET name = ?, description = ?, releasedate = ?, duration = ?, fingerprint = ? " +
+                "WHERE id = ?";
 
         jdbcTemplate.update(sql
                 , film.getName()
                 , film.getDescription()
                 , film.getReleaseDate()
                 , film.getDuration()
+                , fingerprint(film)
                 , film.getId());
         log.info("Фильм обновлен: {}", film);
 
@@ -97,6 +233,9 @@ public class FilmDbStorage implements FilmStorage {
         }
 
         genreStorage.updateGenre(film);
+        identityMap.evict(Film.class, film.getId());
+        filmCache.invalidate(film.getId());
+        versions.bump(EntityVersions.Kind.FILM, film.getId());
 
         return findFilmById(film.getId());
     }
@@ -105,90 +244,227 @@ public class FilmDbStorage implements FilmStorage {
     public List<Film> findAll() {
         log.info("Получение списка фильмов");
         String sql = "select * from films";
-        return jdbcTemplate.query(sql, (rs, rowNum) -> makeFilm(rs));
+        return hydrate(jdbcTemplate.query(sql, (rs, rowNum) -> makeFilm(rs)));
+    }
+
+    // страница фильмов с id больше after, диапазонное чтение по первичному ключу
+    @Override
+    public List<Film> findPage(Long after, int limit) {
+        log.info("Получение {} фильмов с id больше {}", limit, after);
+        String sql = "select * from films where id > ? order by id LIMIT ?";
+        return hydrate(jdbcTemplate.query(sql, (rs, rowNum) -> makeFilm(rs), after, limit));
+    }
+
+    // только id страницы: чтение по первичному ключу без строк фильмов, сами фильмы берутся из кэшей
+    @Override
+    public List<Long> findPageIds(Long after, int limit) {
+        String sql = "select id from films where id > ? order by id LIMIT ?";
+        return jdbcTemplate.queryForList(sql, Long.class, after, limit);
+    }
+
+    // потоковое чтение всех фильмов: строки читаются курсором с ограниченным fetch size,
+    // догружаются и передаются дальше порциями, весь каталог в памяти не собирается
+    @Override
+    public void streamAll(int fetchSize, int chunkSize, Consumer<List<Film>> consumer) {
+        log.info("Потоковая выгрузка фильмов порциями по {}", chunkSize);
+        List<List<Film>> chunk = new ArrayList<>(List.of(new ArrayList<>(chunkSize)));
+
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("select * from films order by id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            chunk.get(0).add(makeFilm(rs));
+            if (chunk.get(0).size() >= chunkSize) {
+                consumer.accept(hydrate(chunk.get(0)));
+                chunk.set(0, new ArrayList<>(chunkSize));
+            }
+        });
+
+        if (!chunk.get(0).isEmpty()) {
+            consumer.accept(hydrate(chunk.get(0)));
+        }
     }
 
     @Override
     public Film findFilmById(Long id) {
+        Film cached = identityMap.get(Film.class, id);
+        if (cached == null) {
+            cached = filmCache.get(id);
+        }
+        if (cached != null) {
+            identityMap.put(Film.class, id, cached);
+            return cached;
+        }
+        long generation = filmCache.generation();
         String sql = "select * from films where id = ?";
+        List<Film> films = hydrate(jdbcTemplate.query(sql, (rs, rowNum) -> makeFilm(rs), id));
 
-        try{
-            return jdbcTemplate.queryForObject(sql, (rs, rowNum) -> makeFilm(rs), id);
-        } catch (EmptyResultDataAccessException e) {
+        if (films.isEmpty()) {
             throw new FilmNotFoundException(String.format("Фильм с id %d не найден", id));
         }
+        filmCache.put(generation, films);
+        identityMap.put(Film.class, id, films.get(0));
+        return films.get(0);
     }
 
-    public String addLike(Long id, Long userId) {
-        String sql = "INSERT INTO LIKES (film_id, user_id) VALUES (?, ?)";
-        jdbcTemplate.update(sql, id, userId);
-
-        return String.format("Фильму с id %d  поставлен лайк пользователем %d", id, userId);
+    // проверка наличия такого же фильма через индекс по отпечатку, без загрузки всей таблицы
+    @Override
+    public boolean contains(Film film) {
+        String sql = "select * from films where fingerprint = ?";
+        SqlRowSet rows = jdbcTemplate.queryForRowSet(sql, fingerprint(film));
+        while (rows.next()) {
+            if (Objects.equals(rows.getString("name"), film.getName())
+                    && Objects.equals(rows.getString("description"), film.getDescription())
+                    && Objects.equals(rows.getDate("releasedate").toLocalDate(), film.getReleaseDate())
+                    && rows.getLong("duration") == film.getDuration()) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public boolean deleteLike(Long id, Long userId) {
-        log.info("Проверка наличия лайка от пользователя c id {} у фильма с id {}", userId, id);
-        if (getLikes(id).contains(userId)) {
-            String sql = "delete from LIKES where film_id = ? and user_id = ?";
-            log.info("У фильма с id {} удален лайк пользователя с id {}", id, userId);
-            return jdbcTemplate.update(sql, id, userId) > 0;
-        } else {
-            log.info("У пользователя с id {} нет друга с id {}", id, userId);
-            return false;
-        }
+    // отпечаток по названию, описанию, дате выхода и продолжительности - тот же, что хранится в индексе
+    @Override
+    public String fingerprint(Film film) {
+        return Fingerprint.of(film.getName(), film.getDescription(), film.getReleaseDate(), film.getDuration());
     }
 
-    private List<Long> getLikes(Long id) {
-        log.info("Получение списка лайков фильма {}", id);
-        String sql = "select user_id from likes where film_id = ?";
+    // получение фильмов по списку id, порядок списка сохраняется; из базы читаются только фильмы,
+    // которых нет ни в кэше текущего запроса, ни в общем кэше
+    @Override
+    public List<Film> findFilmsByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, Film> films = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : ids) {
+            Film cached = identityMap.get(Film.class, id);
+            if (cached != null) {
+                films.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<Long, Film> shared = filmCache.getAll(missing);
+            films.putAll(shared);
+            shared.forEach((id, film) -> identityMap.put(Film.class, id, film));
+            missing.removeAll(shared.keySet());
+        }
+        if (!missing.isEmpty()) {
+            log.info("Получение {} фильмов по списку id", missing.size());
+            long generation = filmCache.generation();
+            String sql = "select * from films where id = ANY(?)";
+            List<Film> loaded = hydrate(jdbcTemplate.query(sql, (rs, rowNum) -> makeFilm(rs),
+                    (Object) missing.toArray(new Long[0])));
+            filmCache.put(generation, loaded);
+            for (Film film : loaded) {
+                films.put(film.getId(), film);
+                identityMap.put(Film.class, film.getId(), film);
+            }
+        }
 
-        return jdbcTemplate.query(sql, (rs, rowNum) -> makeUserId(rs), id);
+        List<Film> list = new ArrayList<>();
+        for (Long id : ids) {
+            if (films.containsKey(id)) {
+                list.add(films.get(id));
+            }
+        }
+        return list;
     }
 
-    private Long getCountLikes(Long id) {
-        log.info("Получение списка лайков фильма {}", id);
-        String sql = "select COUNT(user_id) AS user_id from likes where film_id = ?";
+    // при отложенной записи индекс лайков обновляет сам буфер
+    public String addLike(Long id, Long userId) {
+        if (likeBuffer.isEnabled()) {
+            likeBuffer.addLike(id, userId);
+        } else {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.update("INSERT INTO LIKES (film_id, user_id) VALUES (?, ?)", id, userId);
+                jdbcTemplate.update("UPDATE FILMS SET like_count = like_count + 1 WHERE id = ?", id);
+            });
+            likeIndex.add(id, userId);
+        }
+        identityMap.evict(Film.class, id);
+        filmCache.invalidate(id);
+        versions.bump(EntityVersions.Kind.FILM, id);
 
-        return jdbcTemplate.queryForObject(sql, (rs, rowNum) -> makeUserId(rs), id);
+        return String.format("Фильму с id %d  поставлен лайк пользователем %d", id, userId);
     }
 
-    private Long makeUserId(ResultSet rs) throws SQLException {
-        Long l = rs.getLong("user_id");
-
-        if (l == null) {
-            return null;
+    public boolean deleteLike(Long id, Long userId) {
+        if (likeBuffer.isEnabled()) {
+            if (likeBuffer.deleteLike(id, userId)) {
+                identityMap.evict(Film.class, id);
+                filmCache.invalidate(id);
+                versions.bump(EntityVersions.Kind.FILM, id);
+                return true;
+            }
+            return false;
+        }
+        // нет лайка в индексе - нет и в базе; update == 0 ниже остается окончательной проверкой
+        if (likeIndex.contains(id, userId)) {
+            log.info("У фильма с id {} удален лайк пользователя с id {}", id, userId);
+            Boolean deleted = transactionTemplate.execute(status -> {
+                if (jdbcTemplate.update("delete from LIKES where film_id = ? and user_id = ?", id, userId) == 0) {
+                    return false;
+                }
+                jdbcTemplate.update("UPDATE FILMS SET like_count = like_count - 1 WHERE id = ?", id);
+                return true;
+            });
+            if (Boolean.TRUE.equals(deleted)) {
+                likeIndex.remove(id, userId);
+                identityMap.evict(Film.class, id);
+                filmCache.invalidate(id);
+                versions.bump(EntityVersions.Kind.FILM, id);
+                return true;
+            }
+            return false;
+        } else {
+            log.info("У пользователя с id {} нет друга с id {}", id, userId);
+            return false;
         }
-        return l;
     }
 
     public List<Film> findPopularFilms(Integer count) {
-        List<Film> list = new ArrayList<>();
-
-        for(Long l : getIdFilms(count)) {
-            list.add(findFilmById(l));
+        if (likeBuffer.isEnabled() && likeBuffer.getPendingCount() > 0) {
+            // рейтинг берется из like_count, поэтому отложенные лайки сначала записываются
+            likeBuffer.flush();
         }
-        return list;
+        log.info("Получение {} самых популярных фильмов", count);
+        String sql = "select * from films order by like_count DESC, id LIMIT ?";
+        return hydrate(jdbcTemplate.query(sql, (rs, rowNum) -> makeFilm(rs), count));
     }
 
-    private List<Long> getIdFilms(Integer count) {
-        log.info("Получение списка id пользователей, поставивших лайки");
-        String sql = "select f.id, COUNT(l.user_id) " +
-                "from likes as l " +
-                "RIGHT OUTER JOIN FILMS as f " +
-                "ON l.film_id = f.id " +
-                "group by f.id " +
-                "order by COUNT(l.user_id) DESC LIMIT " + count;
-
-        return jdbcTemplate.query(sql, (rs, rowNum) -> makeFilmId(rs));
+    // количество лайков у каждого фильма, включая фильмы без лайков
+    @Override
+    public Map<Long, Long> getLikeCounts() {
+        log.info("Получение количества лайков всех фильмов");
+        String sql = "select id, like_count from films";
+        return likeBuffer.countLikes(null, () -> {
+            Map<Long, Long> likes = new HashMap<>();
+            jdbcTemplate.query(sql, rs -> {
+                likes.put(rs.getLong("id"), rs.getLong("like_count"));
+            });
+            return likes;
+        });
     }
 
-    private Long makeFilmId(ResultSet rs) throws SQLException {
-        Long l = rs.getLong("id");
-
-        if (l == null) {
-            return null;
+    // пересчет like_count по таблице LIKES для фильмов, у которых счетчик разошелся с ней
+    @Override
+    public int repairLikeCounts() {
+        String sql = "UPDATE FILMS f SET like_count = " +
+                "(select COUNT(*) from likes l where l.film_id = f.id) " +
+                "WHERE like_count <> (select COUNT(*) from likes l where l.film_id = f.id)";
+        int repaired = jdbcTemplate.update(sql);
+        if (repaired > 0) {
+            filmCache.invalidateAll();
+            versions.reset();
         }
-        return l;
+        log.info("Пересчитан счетчик лайков у фильмов: {}", repaired);
+        return repaired;
     }
 
 }
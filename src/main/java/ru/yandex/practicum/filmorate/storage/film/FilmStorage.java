@@ -2,16 +2,28 @@ package ru.yandex.practicum.filmorate.storage.film;
 
 import ru.yandex.practicum.filmorate.model.Film;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
 
     public Film create(Film film);
+    public void createAll(List<Film> films);
     public Film update(Film film);
     public List<Film> findAll();
+    public List<Film> findPage(Long after, int limit);
+    public List<Long> findPageIds(Long after, int limit);
+    public void streamAll(int fetchSize, int chunkSize, Consumer<List<Film>> consumer);
     public Film findFilmById(Long id);
+    public boolean existsById(Long id);
+    public void reloadIds();
+    public boolean contains(Film film);
+    public String fingerprint(Film film);
+    public List<Film> findFilmsByIds(List<Long> ids);
     public String addLike(Long id, Long userId);
     public boolean deleteLike(Long id, Long userId);
     public List<Film> findPopularFilms(Integer count);
+    public Map<Long, Long> getLikeCounts();
+    public int repairLikeCounts();
 }
@@ -0,0 +1,92 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// обратные индексы лайков в памяти: пользователь -> фильмы и фильм -> пользователи.
+// Строятся из таблицы LIKES и обновляются FilmDbStorage при каждом лайке и снятии лайка
+@Component
+@Slf4j
+public class LikeIndex {
+    private final JdbcTemplate jdbcTemplate;
+    private volatile Index index = new Index();
+
+    @Autowired
+    public LikeIndex(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void reload() {
+        Index loaded = new Index();
+        jdbcTemplate.query("select film_id, user_id from likes", rs -> {
+            loaded.add(rs.getLong("film_id"), rs.getLong("user_id"));
+        });
+        index = loaded;
+        log.info("Индекс лайков загружен, пользователей: {}, фильмов: {}",
+                loaded.userFilms.size(), loaded.filmUsers.size());
+    }
+
+    public void add(Long filmId, Long userId) {
+        index.add(filmId, userId);
+    }
+
+    public void remove(Long filmId, Long userId) {
+        index.remove(filmId, userId);
+    }
+
+    public boolean contains(Long filmId, Long userId) {
+        return index.filmUsers.getOrDefault(filmId, Collections.emptySet()).contains(userId);
+    }
+
+    // фильмы, которые лайкнул пользователь; представление только для чтения
+    public Set<Long> getFilms(Long userId) {
+        return Collections.unmodifiableSet(index.userFilms.getOrDefault(userId, Collections.emptySet()));
+    }
+
+    // пользователи, которые лайкнули фильм; представление только для чтения
+    public Set<Long> getUsers(Long filmId) {
+        return Collections.unmodifiableSet(index.filmUsers.getOrDefault(filmId, Collections.emptySet()));
+    }
+
+    // фильм -> пользователи целиком, для построения производных индексов
+    public Map<Long, Set<Long>> getFilmUsers() {
+        return Collections.unmodifiableMap(index.filmUsers);
+    }
+
+    private static class Index {
+        private final Map<Long, Set<Long>> userFilms = new ConcurrentHashMap<>();
+        private final Map<Long, Set<Long>> filmUsers = new ConcurrentHashMap<>();
+
+        private void add(Long filmId, Long userId) {
+            userFilms.compute(userId, (k, films) -> put(films, filmId));
+            filmUsers.compute(filmId, (k, users) -> put(users, userId));
+        }
+
+        // добавление внутри compute, чтобы не попасть в множество, которое remove как раз убирает из карты
+        private static Set<Long> put(Set<Long> set, Long value) {
+            Set<Long> result = set != null ? set : ConcurrentHashMap.newKeySet();
+            result.add(value);
+            return result;
+        }
+
+        private void remove(Long filmId, Long userId) {
+            userFilms.computeIfPresent(userId, (k, films) -> {
+                films.remove(filmId);
+                return films.isEmpty() ? null : films;
+            });
+            filmUsers.computeIfPresent(filmId, (k, users) -> {
+                users.remove(userId);
+                return users.isEmpty() ? null : users;
+            });
+        }
+    }
+}
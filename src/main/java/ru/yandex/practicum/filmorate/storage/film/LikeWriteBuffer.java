@@ -0,0 +1,313 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.exception.LikeBufferOverflowException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+// Отложенная запись лайков (включается filmorate.likes.write-behind.enabled).
+// Лайки копятся в памяти, лайк и снятие лайка одной пары фильм-пользователь взаимно сокращаются,
+// в базу изменения уходят пакетом по размеру буфера или по таймеру, а также при остановке приложения.
+// Чтение количества лайков учитывает еще не записанные изменения.
+// Есть ли лайк, решает LikeIndex без запроса к базе: индекс меняется внутри того же compute, что и буфер,
+// поэтому одновременные лайк и снятие лайка одной пары не видят устаревшее состояние.
+// Если пакет не записался, лайки пишутся по одному: отвергнутые базой (фильм или пользователь уже удален)
+// выбрасываются, остальные ждут следующей записи. Буфер больше filmorate.likes.write-behind.capacity
+// сначала записывается в потоке запроса, а если это не помогло - новые изменения отклоняются.
+@Component
+@Slf4j
+public class LikeWriteBuffer {
+    private static final String MERGE_LIKE = "MERGE INTO LIKES (film_id, user_id) KEY (film_id, user_id) VALUES (?, ?)";
+    private static final String DELETE_LIKE = "delete from LIKES where film_id = ? and user_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final LikeIndex likeIndex;
+    private final boolean enabled;
+    private final int maxPending;
+    private final int capacity;
+    private final long flushIntervalMs;
+
+    // true - лайк нужно добавить, false - удалить
+    private final ConcurrentHashMap<LikeKey, Boolean> pending = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Long> deltas = new ConcurrentHashMap<>();
+    // изменения и чтения берут общую блокировку, запись пакета в базу - эксклюзивную,
+    // чтобы лайк не был виден одновременно и в базе, и в буфере
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // после неудачной записи повтор идет только по таймеру, а не на каждый лайк сверх maxPending
+    private volatile boolean flushFailed;
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public LikeWriteBuffer(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, LikeIndex likeIndex,
+                           @Value("${filmorate.likes.write-behind.enabled:false}") boolean enabled,
+                           @Value("${filmorate.likes.write-behind.max-pending:1000}") int maxPending,
+                           @Value("${filmorate.likes.write-behind.capacity:10000}") int capacity,
+                           @Value("${filmorate.likes.write-behind.flush-interval-ms:1000}") long flushIntervalMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.likeIndex = likeIndex;
+        this.enabled = enabled;
+        this.maxPending = maxPending;
+        this.capacity = capacity;
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "like-write-buffer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Отложенная запись лайков включена: буфер {}, предел {}, интервал {} мс",
+                maxPending, capacity, flushIntervalMs);
+    }
+
+    // при остановке приложения все накопленные лайки записываются в базу
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        flush();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void addLike(Long id, Long userId) {
+        checkCapacity();
+        LikeKey key = new LikeKey(id, userId);
+        lock.readLock().lock();
+        try {
+            pending.compute(key, (k, add) -> {
+                if (add == null && !likeIndex.contains(id, userId)) {
+                    changeDelta(id, 1);
+                    likeIndex.add(id, userId);
+                    return true;
+                }
+                if (add != null && !add) {
+                    // лайк был в базе и снят в буфере - снятие отменяется
+                    changeDelta(id, 1);
+                    likeIndex.add(id, userId);
+                    return null;
+                }
+                throw new DuplicateKeyException(String.format(
+                        "Фильму с id %d уже поставлен лайк пользователем %d", id, userId));
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        requestFlushIfFull();
+    }
+
+    public boolean deleteLike(Long id, Long userId) {
+        checkCapacity();
+        LikeKey key = new LikeKey(id, userId);
+        boolean[] deleted = new boolean[1];
+        lock.readLock().lock();
+        try {
+            pending.compute(key, (k, add) -> {
+                if (add == null && likeIndex.contains(id, userId)) {
+                    changeDelta(id, -1);
+                    likeIndex.remove(id, userId);
+                    deleted[0] = true;
+                    return false;
+                }
+                if (add != null && add) {
+                    // лайк еще не дошел до базы - он просто убирается из буфера
+                    changeDelta(id, -1);
+                    likeIndex.remove(id, userId);
+                    deleted[0] = true;
+                    return null;
+                }
+                return add;
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        requestFlushIfFull();
+        return deleted[0];
+    }
+
+    // количество лайков из базы с поправкой на буфер; ids == null - для всех фильмов
+    public Map<Long, Long> countLikes(Long[] ids, Supplier<Map<Long, Long>> dbCounts) {
+        if (!enabled) {
+            return dbCounts.get();
+        }
+        lock.readLock().lock();
+        try {
+            Map<Long, Long> likes = dbCounts.get();
+            if (ids == null) {
+                deltas.forEach((filmId, delta) -> likes.merge(filmId, delta, Long::sum));
+            } else {
+                for (Long filmId : ids) {
+                    Long delta = deltas.get(filmId);
+                    if (delta != null) {
+                        likes.merge(filmId, delta, Long::sum);
+                    }
+                }
+            }
+            return likes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // запись накопленных изменений в базу одной транзакцией; если пакет не записался - по одному лайку
+    public void flush() {
+        flushScheduled.set(false);
+        lock.writeLock().lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<Object[]> added = new ArrayList<>();
+            List<Object[]> deleted = new ArrayList<>();
+            Set<Long> films = new HashSet<>();
+            for (Map.Entry<LikeKey, Boolean> e : pending.entrySet()) {
+                Object[] row = {e.getKey().getFilmId(), e.getKey().getUserId()};
+                films.add(e.getKey().getFilmId());
+                if (e.getValue()) {
+                    added.add(row);
+                } else {
+                    deleted.add(row);
+                }
+            }
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    jdbcTemplate.batchUpdate(MERGE_LIKE, added);
+                    jdbcTemplate.batchUpdate(DELETE_LIKE, deleted);
+                    updateLikeCounts(films);
+                });
+                pending.clear();
+                deltas.clear();
+                flushFailed = false;
+                log.info("Из буфера записано лайков: {}, удалено лайков: {}", added.size(), deleted.size());
+            } catch (RuntimeException e) {
+                log.warn("Не удалось записать буфер лайков одним пакетом, запись по одному лайку", e);
+                flushByLike();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // запись по одному лайку под эксклюзивной блокировкой: лайк, нарушающий ограничения базы, выбрасывается
+    // из буфера и индекса, при прочих ошибках остается в буфере до следующей записи
+    private void flushByLike() {
+        Set<Long> films = new HashSet<>();
+        int written = 0;
+        int dropped = 0;
+        for (Map.Entry<LikeKey, Boolean> e : new ArrayList<>(pending.entrySet())) {
+            Long id = e.getKey().getFilmId();
+            Long userId = e.getKey().getUserId();
+            try {
+                jdbcTemplate.update(e.getValue() ? MERGE_LIKE : DELETE_LIKE, id, userId);
+                written++;
+            } catch (DataIntegrityViolationException ex) {
+                log.error("Лайк фильму с id {} от пользователя с id {} отвергнут базой и удален из буфера: {}",
+                        id, userId, ex.getMessage());
+                if (e.getValue()) {
+                    likeIndex.remove(id, userId);
+                } else {
+                    likeIndex.add(id, userId);
+                }
+                dropped++;
+            } catch (RuntimeException ex) {
+                log.error("Лайк фильму с id {} от пользователя с id {} не записан, повтор при следующей записи: {}",
+                        id, userId, ex.getMessage());
+                continue;
+            }
+            pending.remove(e.getKey());
+            films.add(id);
+        }
+        // поправки к счетчикам нужны только для оставшихся в буфере лайков
+        deltas.clear();
+        pending.forEach((key, add) -> changeDelta(key.getFilmId(), add ? 1 : -1));
+        if (!films.isEmpty()) {
+            try {
+                updateLikeCounts(films);
+            } catch (RuntimeException ex) {
+                log.error("Не удалось пересчитать like_count фильмов {}", films, ex);
+            }
+        }
+        flushFailed = !pending.isEmpty();
+        log.info("Из буфера по одному записано лайков: {}, отвергнуто: {}, осталось в буфере: {}",
+                written, dropped, pending.size());
+    }
+
+    // MERGE не сообщает, была ли строка новой, поэтому счетчик затронутых фильмов пересчитывается целиком
+    private void updateLikeCounts(Set<Long> films) {
+        jdbcTemplate.update("UPDATE FILMS f SET like_count = " +
+                "(select COUNT(*) from likes l where l.film_id = f.id) WHERE id = ANY(?)",
+                (Object) films.toArray(new Long[0]));
+    }
+
+    // переполненный буфер (база долго недоступна) сначала записывается в потоке запроса,
+    // если и это не помогло - изменение отклоняется, а не копится в памяти без ограничений
+    private void checkCapacity() {
+        if (pending.size() < capacity) {
+            return;
+        }
+        flush();
+        if (pending.size() >= capacity) {
+            throw new LikeBufferOverflowException(String.format(
+                    "Буфер лайков переполнен (%d), база недоступна, повторите позже", pending.size()));
+        }
+    }
+
+    private void requestFlushIfFull() {
+        if (pending.size() >= maxPending && !flushFailed && flushScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // планировщик уже остановлен (stop) - лайк принят, буфер записывается в этом же потоке
+                flush();
+            }
+        }
+    }
+
+    private void changeDelta(Long id, long delta) {
+        deltas.merge(id, delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+    @Data
+    private static class LikeKey {
+        private final long filmId;
+        private final long userId;
+    }
+}
@@ -2,72 +2,72 @@ package ru.yandex.practicum.filmorate.storage.genre;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Primary;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.reference.ReferenceDataRegistry;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Component
 @Primary
 @Slf4j
 public class GenreDbStorage implements GenreStorage {
     private final JdbcTemplate jdbcTemplate;
+    private final ReferenceDataRegistry referenceData;
+    private final FilmCache filmCache;
 
-    public GenreDbStorage(JdbcTemplate jdbcTemplate){
+    public GenreDbStorage(JdbcTemplate jdbcTemplate, ReferenceDataRegistry referenceData, FilmCache filmCache){
         this.jdbcTemplate=jdbcTemplate;
+        this.referenceData = referenceData;
+        this.filmCache = filmCache;
     }
 
-    // получение списка всех жанров
+    // получение списка всех жанров из справочника
     @Override
     public List<Genre> findAll() {
         log.info("Получение списка жанров");
-        String sql = "select * from genre";
-        return jdbcTemplate.query(sql, (rs, rowNum) -> makeGenre(rs));
+        return referenceData.getGenres();
     }
 
-    // поиск жанра по id
+    // поиск жанра по id в справочнике
     @Override
     public Genre findGenreById(Long id) {
-        String sql = "select * from GENRE where id = ?";
+        Genre genre = referenceData.getGenre(id);
 
-        try{
-            return jdbcTemplate.queryForObject(sql, (rs, rowNum) -> makeGenre(rs), id);
-        } catch (EmptyResultDataAccessException e) {
+        if (genre == null) {
             throw new NotFoundException(String.format("Жанр с id %d не найден", id));
         }
+        return genre;
     }
 
     // получение жанров по id фильма
     @Override
     public List<Genre> getGenre(Long id) {
         log.info("Получение List<Genre> фильма с id {}", id);
-        List<Genre> list = new ArrayList<>();
+        return getGenresByFilmIds(new Long[]{id}).getOrDefault(id, new ArrayList<>());
+    }
 
-        if (getGenreId(id) != null) {
-            for (Long l : getGenreId(id)) {
-                list.add(findGenreById(l));
+    // получение жанров для набора фильмов одним запросом: id фильма -> список жанров
+    @Override
+    public Map<Long, List<Genre>> getGenresByFilmIds(Long[] filmIds) {
+        log.info("Получение жанров для {} фильмов", filmIds.length);
+        String sql = "select film_id, genre_id from FILM_GENRE where film_id = ANY(?) order by film_id, genre_id";
+        Map<Long, List<Genre>> genres = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            Genre genre = referenceData.getGenre(rs.getLong("genre_id"));
+            if (genre != null) {
+                genres.computeIfAbsent(rs.getLong("film_id"), k -> new ArrayList<>()).add(genre);
             }
-        }
-        return list;
-    }
+        }, (Object) filmIds);
 
-    // получение id жанров по id фильма
-    private List<Long> getGenreId(Long id) {
-        log.info("Получение списка id жанров для фильма с id {}", id);
-        String sql = "select genre_id from FILM_GENRE where film_id = ?";
-        try{
-            return jdbcTemplate.query(sql, (rs, rowNum) -> makeGenreId(rs), id);
-        } catch (EmptyResultDataAccessException e) {
-            return null;
-        }
+        return genres;
     }
 
     // добавление жанров
@@ -100,26 +100,7 @@ public class GenreDbStorage implements GenreStorage {
                 log.info("Фильму с id {} присвоен жанр {}", film.getId(), g);
             }
         }
+        filmCache.invalidate(film.getId());
     }
 
-    private Long makeGenreId(ResultSet rs) throws SQLException {
-        Long l = rs.getLong("genre_id");
-
-        if (l == null) {
-            return null;
-        }
-        return l;
-    }
-
-    private Genre makeGenre(ResultSet rs) throws SQLException {
-        Genre genre = Genre.builder()
-                .id(rs.getLong("id"))
-                .name(rs.getString("name"))
-                .build();
-
-        if (genre == null) {
-            return null;
-        }
-        return genre;
-    }
 }
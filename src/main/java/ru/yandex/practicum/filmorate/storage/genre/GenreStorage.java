@@ -4,11 +4,13 @@ import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
 
 import java.util.List;
+import java.util.Map;
 
 public interface GenreStorage {
     public List<Genre> findAll();
     public Genre findGenreById(Long id);
     public List<Genre> getGenre(Long id);
+    public Map<Long, List<Genre>> getGenresByFilmIds(Long[] filmIds);
     public void addGenre(Film film);
     public void updateGenre(Film film);
 
@@ -0,0 +1,7 @@
+package ru.yandex.practicum.filmorate.storage.id;
+
+// выдача id для новых записей без обращения к таблице на каждую вставку
+public interface IdAllocator {
+    public long nextId();
+    public void resync();
+}
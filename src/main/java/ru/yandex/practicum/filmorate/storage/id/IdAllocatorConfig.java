@@ -0,0 +1,22 @@
+package ru.yandex.practicum.filmorate.storage.id;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+@Configuration
+public class IdAllocatorConfig {
+
+    @Bean(initMethod = "resync")
+    public IdAllocator filmIdAllocator(JdbcTemplate jdbcTemplate,
+                                       @Value("${filmorate.id-allocator.block-size:50}") int blockSize) {
+        return new SequenceBlockIdAllocator(jdbcTemplate, "films", "films_id_seq", blockSize);
+    }
+
+    @Bean(initMethod = "resync")
+    public IdAllocator userIdAllocator(JdbcTemplate jdbcTemplate,
+                                       @Value("${filmorate.id-allocator.block-size:50}") int blockSize) {
+        return new SequenceBlockIdAllocator(jdbcTemplate, "users", "users_id_seq", blockSize);
+    }
+}
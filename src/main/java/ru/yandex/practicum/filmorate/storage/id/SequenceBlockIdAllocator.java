@@ -0,0 +1,71 @@
+package ru.yandex.practicum.filmorate.storage.id;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// id выдаются из блоков, зарезервированных в последовательности базы (шаг последовательности = размер блока).
+// Внутри блока выдача идет через AtomicLong без блокировок, синхронизация нужна только при смене блока.
+@Slf4j
+public class SequenceBlockIdAllocator implements IdAllocator {
+    private static final Block EMPTY = new Block(0, 0);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String table;
+    private final String sequence;
+    private final int blockSize;
+    private final AtomicReference<Block> block = new AtomicReference<>(EMPTY);
+
+    public SequenceBlockIdAllocator(JdbcTemplate jdbcTemplate, String table, String sequence, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Размер блока id должен быть положительным: " + blockSize);
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.table = table;
+        this.sequence = sequence;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public long nextId() {
+        while (true) {
+            Block current = block.get();
+            long id = current.next.getAndIncrement();
+            if (id < current.end) {
+                return id;
+            }
+            reserve(current);
+        }
+    }
+
+    // последовательность переставляется на следующий после максимального id в таблице,
+    // текущий блок сбрасывается
+    @Override
+    public synchronized void resync() {
+        Long max = jdbcTemplate.queryForObject("select COALESCE(MAX(id), 0) from " + table, Long.class);
+        jdbcTemplate.execute("ALTER SEQUENCE " + sequence + " RESTART WITH " + (max + 1) + " INCREMENT BY " + blockSize);
+        block.set(EMPTY);
+        log.info("Последовательность {} установлена на id {}, размер блока {}", sequence, max + 1, blockSize);
+    }
+
+    private synchronized void reserve(Block exhausted) {
+        if (block.get() != exhausted) {
+            return;
+        }
+        Long start = jdbcTemplate.queryForObject("select NEXT VALUE FOR " + sequence, Long.class);
+        block.set(new Block(start, start + blockSize));
+        log.info("Для таблицы {} зарезервирован блок id с {} по {}", table, start, start + blockSize - 1);
+    }
+
+    private static class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
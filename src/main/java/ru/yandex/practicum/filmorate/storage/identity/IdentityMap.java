@@ -0,0 +1,81 @@
+package ru.yandex.practicum.filmorate.storage.identity;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// кэш первого уровня на время HTTP-запроса (или блока кода): сущность, уже загруженная по id в этой области,
+// повторно отдается из памяти тем же объектом. Область привязана к потоку, как у JdbcProfiler,
+// вне области кэш не работает. Изменение сущности в хранилище удаляет ее из текущей области
+@Component
+public class IdentityMap {
+    private final ThreadLocal<Scope> current = new ThreadLocal<>();
+
+    public Scope open(String name) {
+        Scope scope = new Scope(name, current.get());
+        current.set(scope);
+        return scope;
+    }
+
+    // null - области нет или сущность в ней еще не загружалась
+    public <T> T get(Class<T> type, Long id) {
+        Scope scope = current.get();
+        if (scope == null) {
+            return null;
+        }
+        Object entity = scope.entities.getOrDefault(type, Map.of()).get(id);
+        if (entity == null) {
+            scope.misses++;
+            return null;
+        }
+        scope.hits++;
+        return type.cast(entity);
+    }
+
+    public <T> void put(Class<T> type, Long id, T entity) {
+        Scope scope = current.get();
+        if (scope != null) {
+            scope.entities.computeIfAbsent(type, t -> new HashMap<>()).put(id, entity);
+        }
+    }
+
+    public void evict(Class<?> type, Long id) {
+        Scope scope = current.get();
+        if (scope != null) {
+            Map<Long, Object> entities = scope.entities.get(type);
+            if (entities != null) {
+                entities.remove(id);
+            }
+        }
+    }
+
+    @Getter
+    public class Scope implements AutoCloseable {
+        private final String name;
+        @Getter(AccessLevel.NONE)
+        private final Scope parent;
+        @Getter(AccessLevel.NONE)
+        private final Map<Class<?>, Map<Long, Object>> entities = new HashMap<>();
+        private int hits;
+        private int misses;
+
+        private Scope(String name, Scope parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        @Override
+        public void close() {
+            if (current.get() == this) {
+                if (parent != null) {
+                    current.set(parent);
+                } else {
+                    current.remove();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package ru.yandex.practicum.filmorate.storage.identity;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+// область IdentityMap на каждый HTTP-запрос: попадания и промахи идут в метрику filmorate.identity.map,
+// итог запроса пишется в лог на уровне DEBUG
+@Component
+@Slf4j
+public class IdentityMapFilter extends OncePerRequestFilter {
+    private final IdentityMap identityMap;
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    public IdentityMapFilter(IdentityMap identityMap, MeterRegistry registry) {
+        this.identityMap = identityMap;
+        this.hits = Counter.builder("filmorate.identity.map")
+                .description("Повторные загрузки сущностей по id в пределах HTTP-запроса")
+                .tag("result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("filmorate.identity.map")
+                .description("Повторные загрузки сущностей по id в пределах HTTP-запроса")
+                .tag("result", "miss")
+                .register(registry);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        IdentityMap.Scope scope = identityMap.open(request.getMethod() + " " + request.getRequestURI());
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            scope.close();
+            hits.increment(scope.getHits());
+            misses.increment(scope.getMisses());
+            log.debug("{}: из кэша запроса {}, загружено {}", scope.getName(), scope.getHits(), scope.getMisses());
+        }
+    }
+}
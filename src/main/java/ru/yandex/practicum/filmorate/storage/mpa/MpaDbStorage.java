@@ -2,56 +2,71 @@ package ru.yandex.practicum.filmorate.storage.mpa;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Primary;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.reference.ReferenceDataRegistry;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Component
 @Primary
 @Slf4j
 public class MpaDbStorage implements MpaStorage{
     private final JdbcTemplate jdbcTemplate;
+    private final ReferenceDataRegistry referenceData;
+    private final FilmCache filmCache;
 
-    public MpaDbStorage(JdbcTemplate jdbcTemplate){
+    public MpaDbStorage(JdbcTemplate jdbcTemplate, ReferenceDataRegistry referenceData, FilmCache filmCache){
         this.jdbcTemplate=jdbcTemplate;
+        this.referenceData = referenceData;
+        this.filmCache = filmCache;
     }
 
-    // получение списка всех mpa
+    // получение списка всех mpa из справочника
     @Override
     public List<Mpa> findAll() {
         log.info("Получение списка mpa");
-        String sql = "select * from mpa";
-        return jdbcTemplate.query(sql, (rs, rowNum) -> makeMpa(rs));
+        return referenceData.getMpa();
     }
 
-    // поиск mpa по id
+    // поиск mpa по id в справочнике
     @Override
     public Mpa findMpaById(Long id) {
-        String sql = "select * from mpa where id = ?";
+        Mpa mpa = referenceData.getMpa(id);
 
-        try{
-            return jdbcTemplate.queryForObject(sql, (rs, rowNum) -> makeMpa(rs), id);
-        } catch (EmptyResultDataAccessException e) {
+        if (mpa == null) {
             throw new NotFoundException(String.format("Mpa с id %d не найден", id));
         }
+        return mpa;
     }
 
     // получение mpa по id фильма
     @Override
     public Mpa getMpa(Long id) {
         log.info("Получение mpa фильма с id {}", id);
-        if (getMpaId(id) != null) {
-            return findMpaById(getMpaId(id));
-        } else {
-            return null;
-        }
+        return getMpaByFilmIds(new Long[]{id}).get(id);
+    }
+
+    // получение mpa для набора фильмов одним запросом: id фильма -> mpa
+    @Override
+    public Map<Long, Mpa> getMpaByFilmIds(Long[] filmIds) {
+        log.info("Получение mpa для {} фильмов", filmIds.length);
+        String sql = "select film_id, mpa_id from FILM_MPA where film_id = ANY(?)";
+        Map<Long, Mpa> mpa = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            Mpa m = referenceData.getMpa(rs.getLong("mpa_id"));
+            if (m != null) {
+                mpa.put(rs.getLong("film_id"), m);
+            }
+        }, (Object) filmIds);
+
+        return mpa;
     }
 
     // добавление mpa
@@ -68,38 +83,8 @@ public class MpaDbStorage implements MpaStorage{
 
         String sql = "INSERT INTO FILM_MPA (film_id, mpa_id) VALUES (?, ?)";
         jdbcTemplate.update(sql, film.getId(), film.getMpa().getId());
+        filmCache.invalidate(film.getId());
         log.info("У фильма с id {}  установлен новый mpa с id {}", film.getId(), film.getMpa().getId());
     }
 
-    private Long getMpaId(Long id) {
-        log.info("Получение id mpa по id фильма {}", id);
-        String sql = "select mpa_id from FILM_MPA where film_id = ?";
-
-        try{
-            return jdbcTemplate.queryForObject(sql, (rs, rowNum) -> makeMpaId(rs), id);
-        } catch (EmptyResultDataAccessException e) {
-            return null;
-        }
-    }
-
-    private Long makeMpaId(ResultSet rs) throws SQLException {
-        Long l = rs.getLong("mpa_id");
-
-        if (l == null) {
-            return null;
-        }
-        return l;
-    }
-
-    private Mpa makeMpa(ResultSet rs) throws SQLException {
-        Mpa mpa = Mpa.builder()
-                .id(rs.getLong("id"))
-                .name(rs.getString("name"))
-                .build();
-
-        if (mpa == null) {
-            return null;
-        }
-        return mpa;
-    }
 }
@@ -4,11 +4,13 @@ import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Mpa;
 
 import java.util.List;
+import java.util.Map;
 
 public interface MpaStorage {
     public List<Mpa> findAll();
     public Mpa findMpaById(Long id);
     public Mpa getMpa(Long id);
+    public Map<Long, Mpa> getMpaByFilmIds(Long[] filmIds);
     public void addMpa(Film film);
     public void updateMpa(Film film);
 }
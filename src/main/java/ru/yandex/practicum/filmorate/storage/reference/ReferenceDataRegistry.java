@@ -0,0 +1,76 @@
+package ru.yandex.practicum.filmorate.storage.reference;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+
+// справочники жанров и mpa: загружаются из базы один раз, дальше отдаются из памяти
+@Component
+@Slf4j
+public class ReferenceDataRegistry {
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityVersions versions;
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList(), Collections.emptyList());
+
+    public ReferenceDataRegistry(JdbcTemplate jdbcTemplate, EntityVersions versions) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.versions = versions;
+    }
+
+    // повторная загрузка справочников из таблиц GENRE и MPA
+    @PostConstruct
+    public void reload() {
+        List<Genre> genres = jdbcTemplate.query("select * from genre order by id", (rs, rowNum) ->
+                new Genre(rs.getLong("id"), rs.getString("name")));
+        List<Mpa> mpa = jdbcTemplate.query("select * from mpa order by id", (rs, rowNum) ->
+                new Mpa(rs.getLong("id"), rs.getString("name")));
+        snapshot = new Snapshot(genres, mpa);
+        versions.bump(EntityVersions.Kind.GENRE);
+        versions.bump(EntityVersions.Kind.MPA);
+        log.info("Справочники загружены: жанров {}, mpa {}", genres.size(), mpa.size());
+    }
+
+    public List<Genre> getGenres() {
+        return snapshot.genres;
+    }
+
+    public Genre getGenre(Long id) {
+        return snapshot.genreById.get(id);
+    }
+
+    public List<Mpa> getMpa() {
+        return snapshot.mpa;
+    }
+
+    public Mpa getMpa(Long id) {
+        return snapshot.mpaById.get(id);
+    }
+
+    private static class Snapshot {
+        private final List<Genre> genres;
+        private final Map<Long, Genre> genreById;
+        private final List<Mpa> mpa;
+        private final Map<Long, Mpa> mpaById;
+
+        private Snapshot(List<Genre> genres, List<Mpa> mpa) {
+            Map<Long, Genre> genreById = new HashMap<>();
+            for (Genre g : genres) {
+                genreById.put(g.getId(), g);
+            }
+            Map<Long, Mpa> mpaById = new HashMap<>();
+            for (Mpa m : mpa) {
+                mpaById.put(m.getId(), m);
+            }
+            this.genres = Collections.unmodifiableList(new ArrayList<>(genres));
+            this.genreById = Collections.unmodifiableMap(genreById);
+            this.mpa = Collections.unmodifiableList(new ArrayList<>(mpa));
+            this.mpaById = Collections.unmodifiableMap(mpaById);
+        }
+    }
+}
@@ -1,60 +1,97 @@
 package ru.yandex.practicum.filmorate.storage.user;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Primary;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
+import ru.yandex.practicum.filmorate.storage.Fingerprint;
+import ru.yandex.practicum.filmorate.storage.IdBitmap;
+import ru.yandex.practicum.filmorate.storage.SortedLongSets;
+import ru.yandex.practicum.filmorate.storage.id.IdAllocator;
+import ru.yandex.practicum.filmorate.storage.identity.IdentityMap;
 
+import javax.annotation.PostConstruct;
 import java.sql.Date;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Component
 @Primary
 @Slf4j
 public class UserDbStorage implements UserStorage {
     private final JdbcTemplate jdbcTemplate;
+    private final IdAllocator idAllocator;
+    private final EntityVersions versions;
+    private final IdentityMap identityMap;
+    private final IdBitmap ids = new IdBitmap();
 
-    public UserDbStorage(JdbcTemplate jdbcTemplate){
+    public UserDbStorage(JdbcTemplate jdbcTemplate, @Qualifier("userIdAllocator") IdAllocator idAllocator,
+                         EntityVersions versions, IdentityMap identityMap){
         this.jdbcTemplate=jdbcTemplate;
+        this.idAllocator = idAllocator;
+        this.versions = versions;
+        this.identityMap = identityMap;
     }
 
+    // id всех пользователей для existsById; нужно после изменения таблицы в обход хранилища,
+    // поэтому сбрасываются и версии (id удаленных пользователей могут достаться новым)
+    @PostConstruct
     @Override
-    public User create(User user) {
-        Long idn = 1L;
-        SqlRowSet userRows = jdbcTemplate.queryForRowSet("SELECT * FROM USERS ORDER BY ID DESC LIMIT 1");
-        if (userRows.next()) {
-            idn = userRows.getLong("id");
-            log.info("Последний установленный id: {}", idn);
-            idn++;
-        }
+    public void reloadIds() {
+        versions.reset();
+        ids.replace(jdbcTemplate.queryForList("select id from users", Long.class).stream()
+                .mapToLong(Long::longValue).toArray());
+        log.info("Загружены id пользователей для проверки существования");
+    }
 
-        user.setId(idn);
-        log.info("Установлен id пользователя: {}", idn);
-        String sql = "INSERT INTO USERS (id, login, name, email, birthday) VALUES (?, ?, ?, ?, ?)";
+    // проверка существования без запроса к базе
+    @Override
+    public boolean existsById(Long id) {
+        return ids.contains(id);
+    }
+
+    @Override
+    public User create(User user) {
+        user.setId(idAllocator.nextId());
+        log.info("Установлен id пользователя: {}", user.getId());
+        String sql = "INSERT INTO USERS (id, login, name, email, birthday, fingerprint) VALUES (?, ?, ?, ?, ?, ?)";
         jdbcTemplate.update(sql, user.getId(), user.getLogin(), user.getName(),
-                user.getEmail(), Date.valueOf(user.getBirthday()));
+                user.getEmail(), Date.valueOf(user.getBirthday()), fingerprint(user));
+        Long id = user.getId();
+        AfterCommit.run(() -> ids.add(id));
         log.info("Добавлен новый пользователь: {}", user);
+        versions.bump(EntityVersions.Kind.USER, user.getId());
 
         return findUserById(user.getId());
     }
 
     @Override
     public User update(User user) {
-        String sql = "UPDATE USERS SET login = ?, name = ?, email = ?, birthday = ? WHERE id = ?";
+        String sql = "UPDATE USERS SET login = ?, name = ?, email = ?, birthday = ?, fingerprint = ? WHERE id = ?";
 
         jdbcTemplate.update(sql
                 , user.getLogin()
                 , user.getName()
                 , user.getEmail()
                 , user.getBirthday()
+                , fingerprint(user)
                 , user.getId());
         log.info("Пользователь обновлен: {}", user);
+        identityMap.evict(User.class, user.getId());
+        versions.bump(EntityVersions.Kind.USER, user.getId());
 
         return findUserById(user.getId());
     }
@@ -63,24 +100,86 @@ public class UserDbStorage implements UserStorage {
     public List<User> findAll() {
         log.info("Получение списка пользователей");
         String sql = "select * from users";
-        return jdbcTemplate.query(sql, (rs, rowNum) -> makeUser(rs));
+        return loadFriends(jdbcTemplate.query(sql, (rs, rowNum) -> makeUser(rs)));
+    }
+
+    // страница пользователей с id больше after, диапазонное чтение по первичному ключу
+    @Override
+    public List<User> findPage(Long after, int limit) {
+        log.info("Получение {} пользователей с id больше {}", limit, after);
+        String sql = "select * from users where id > ? order by id LIMIT ?";
+        return loadFriends(jdbcTemplate.query(sql, (rs, rowNum) -> makeUser(rs), after, limit));
+    }
+
+    // потоковое чтение всех пользователей курсором с ограниченным fetch size, порциями по chunkSize
+    @Override
+    public void streamAll(int fetchSize, int chunkSize, Consumer<List<User>> consumer) {
+        log.info("Потоковая выгрузка пользователей порциями по {}", chunkSize);
+        List<List<User>> chunk = new ArrayList<>(List.of(new ArrayList<>(chunkSize)));
+
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("select * from users order by id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            chunk.get(0).add(makeUser(rs));
+            if (chunk.get(0).size() >= chunkSize) {
+                consumer.accept(loadFriends(chunk.get(0)));
+                chunk.set(0, new ArrayList<>(chunkSize));
+            }
+        });
+
+        if (!chunk.get(0).isEmpty()) {
+            consumer.accept(loadFriends(chunk.get(0)));
+        }
     }
 
     @Override
     public User findUserById(Long id) {
+        User cached = identityMap.get(User.class, id);
+        if (cached != null) {
+            return cached;
+        }
         String sql = "select * from users where id = ?";
 
         try{
-            return jdbcTemplate.queryForObject(sql, (rs, rowNum) -> makeUser(rs), id);
+            User user = jdbcTemplate.queryForObject(sql, (rs, rowNum) -> makeUser(rs), id);
+            loadFriends(List.of(user));
+            identityMap.put(User.class, id, user);
+            return user;
         } catch (EmptyResultDataAccessException e) {
             throw new UserNotFoundException(String.format("Пользователь с id %d не найден", id));
         }
     }
 
+    // проверка наличия такого же пользователя через индекс по отпечатку, без загрузки всей таблицы
+    @Override
+    public boolean contains(User user) {
+        String sql = "select * from users where fingerprint = ?";
+        SqlRowSet rows = jdbcTemplate.queryForRowSet(sql, fingerprint(user));
+        while (rows.next()) {
+            if (Objects.equals(rows.getString("login"), user.getLogin())
+                    && Objects.equals(rows.getString("name"), user.getName())
+                    && Objects.equals(rows.getString("email"), user.getEmail())
+                    && Objects.equals(rows.getDate("birthday").toLocalDate(), user.getBirthday())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // отпечаток по тем же полям, что сравнивает User.equals
+    private String fingerprint(User user) {
+        return Fingerprint.of(user.getLogin(), user.getName(), user.getEmail(), user.getBirthday());
+    }
+
     @Override
     public String addAsFriend(Long id, Long friendId) {
         String sql = "INSERT INTO FRIENDS (user_id, friend_id) VALUES (?, ?)";
         jdbcTemplate.update(sql, id, friendId);
+        identityMap.evict(User.class, id);
+        versions.bump(EntityVersions.Kind.USER, id);
 
         return String.format("Пользователь с id %d  добавлен в друзья к пользователю %d", friendId, id);
     }
@@ -91,7 +190,12 @@ public class UserDbStorage implements UserStorage {
         if (getIdFriends(id).contains(friendId)) {
             String sql = "delete from FRIENDS where user_id = ? and friend_id = ?";
             log.info("У пользователя с id {} удален из друзей пользователь с id {}", id, friendId);
-            return jdbcTemplate.update(sql, id, friendId) > 0;
+            boolean deleted = jdbcTemplate.update(sql, id, friendId) > 0;
+            if (deleted) {
+                identityMap.evict(User.class, id);
+                versions.bump(EntityVersions.Kind.USER, id);
+            }
+            return deleted;
         } else {
             log.info("У пользователя с id {} нет друга с id {}", id, friendId);
             return false;
@@ -100,40 +204,116 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public List<User> mutualFriendsList(Long id, Long otherId) {
-        List <User> list = new ArrayList<>();
+        return commonFriends(List.of(id, otherId));
+    }
 
-        if(getIdFriends(id) == null || getIdFriends(otherId) == null) {
-            return list;
+    // общие друзья набора пользователей: пересечение отсортированных массивов id друзей
+    // и загрузка найденных пользователей одним запросом
+    @Override
+    public List<User> commonFriends(List<Long> ids) {
+        log.info("Поиск общих друзей пользователей {}", ids);
+        List<long[]> friendIds = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            long[] friends = getFriendIdArray(id);
+            if (friends.length == 0) {
+                return new ArrayList<>();
+            }
+            friendIds.add(friends);
         }
 
-        for (Long i : getIdFriends(id)) {
-            for (Long j : getIdFriends(otherId)) {
-                if (i.equals(j)) {
-                    list.add(findUserById(j));
-                }
+        long[] common = SortedLongSets.intersect(friendIds);
+        return findUsersByIds(Arrays.stream(common).boxed().collect(Collectors.toList()));
+    }
+
+    // пользователи по списку id одним запросом, порядок списка сохраняется; из базы читаются только те,
+    // кого еще нет в кэше текущего запроса
+    @Override
+    public List<User> findUsersByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, User> users = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : ids) {
+            User cached = identityMap.get(User.class, id);
+            if (cached != null) {
+                users.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            log.info("Получение {} пользователей по списку id", missing.size());
+            String sql = "select * from users where id = ANY(?)";
+            for (User user : loadFriends(jdbcTemplate.query(sql, (rs, rowNum) -> makeUser(rs),
+                    (Object) missing.toArray(new Long[0])))) {
+                users.put(user.getId(), user);
+                identityMap.put(User.class, user.getId(), user);
             }
         }
 
+        List<User> list = new ArrayList<>();
+        for (Long id : ids) {
+            if (users.containsKey(id)) {
+                list.add(users.get(id));
+            }
+        }
         return list;
     }
 
     @Override
     public List<User> getFriends(Long id) {
-        List<User> list = new ArrayList<>();
+        return findUsersByIds(getIdFriends(id));
+    }
 
-        for(Long l : getIdFriends(id)) {
-            list.add(findUserById(l));
-        }
-        return list;
+    // страница друзей с id больше after, диапазонное чтение по первичному ключу (user_id, friend_id)
+    @Override
+    public List<User> getFriendsPage(Long id, Long after, int limit) {
+        log.info("Получение {} друзей пользователя {} с id больше {}", limit, id, after);
+        String sql = "select friend_id from friends where user_id = ? and friend_id > ? order by friend_id LIMIT ?";
+        return findUsersByIds(jdbcTemplate.query(sql, (rs, rowNum) -> makeId(rs), id, after, limit));
     }
 
+    // все связи дружбы по возрастанию (user_id, friend_id) для построения графа в памяти
+    @Override
+    public void forEachFriendship(BiConsumer<Long, Long> consumer) {
+        log.info("Чтение всех связей дружбы");
+        String sql = "select user_id, friend_id from friends order by user_id, friend_id";
+        jdbcTemplate.query(sql, rs -> {
+            consumer.accept(rs.getLong("user_id"), rs.getLong("friend_id"));
+        });
+    }
+
+    // id друзей пользователя по возрастанию, чтение по первичному ключу (user_id, friend_id)
     private List<Long> getIdFriends(Long id) {
         log.info("Получение списка id друзей пользователя {}", id);
-        String sql = "select friend_id from friends where user_id = ?";
+        String sql = "select friend_id from friends where user_id = ? order by friend_id";
 
         return jdbcTemplate.query(sql, (rs, rowNum) -> makeId(rs), id);
     }
 
+    // те же id друзей массивом для пересечения в SortedLongSets
+    private long[] getFriendIdArray(Long id) {
+        return getIdFriends(id).stream().mapToLong(Long::longValue).toArray();
+    }
+
+    // списки друзей для всей порции пользователей одним сгруппированным запросом
+    private List<User> loadFriends(List<User> users) {
+        if (users.isEmpty()) {
+            return users;
+        }
+        Map<Long, User> byId = new HashMap<>();
+        for (User user : users) {
+            byId.put(user.getId(), user);
+        }
+
+        String sql = "select user_id, friend_id from friends where user_id = ANY(?) order by user_id, friend_id";
+        jdbcTemplate.query(sql, rs -> {
+            byId.get(rs.getLong("user_id")).getFriends().add(rs.getLong("friend_id"));
+        }, (Object) byId.keySet().toArray(new Long[0]));
+        return users;
+    }
+
     private User makeUser(ResultSet rs) throws SQLException {
         User user = User.builder()
                 .id(rs.getLong("id"))
@@ -141,7 +321,7 @@ public class UserDbStorage implements UserStorage {
                 .name(rs.getString("name"))
                 .email(rs.getString("email"))
                 .birthday(rs.getDate("birthday").toLocalDate())
-                .friends(getIdFriends(rs.getLong("id")))
+                .friends(new ArrayList<>())
                 .build();
 
         if (user == null) {
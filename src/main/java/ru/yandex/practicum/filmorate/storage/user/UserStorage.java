@@ -3,16 +3,27 @@ package ru.yandex.practicum.filmorate.storage.user;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public interface UserStorage {
 
     public User create(User user);
     public User update(User user);
     public List<User> findAll();
+    public List<User> findPage(Long after, int limit);
+    public void streamAll(int fetchSize, int chunkSize, Consumer<List<User>> consumer);
     public User findUserById(Long id);
+    public boolean existsById(Long id);
+    public void reloadIds();
+    public List<User> findUsersByIds(List<Long> ids);
+    public boolean contains(User user);
     public String addAsFriend(Long id, Long friendId);
     public List<User> getFriends(Long id);
+    public List<User> getFriendsPage(Long id, Long after, int limit);
     public boolean deleteFromFriend(Long id, Long friendId);
     public List<User> mutualFriendsList(Long id, Long otherId);
+    public List<User> commonFriends(List<Long> ids);
+    public void forEachFriendship(BiConsumer<Long, Long> consumer);
 
 }
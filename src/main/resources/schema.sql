@@ -3,20 +3,25 @@ CREATE ALIAS IF NOT EXISTS getDate AS
         return new java.util.Date();
     }';
 
+CREATE SEQUENCE IF NOT EXISTS users_id_seq;
+CREATE SEQUENCE IF NOT EXISTS films_id_seq;
+
 CREATE TABLE IF NOT EXISTS users (
-    id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    id INTEGER DEFAULT NEXT VALUE FOR users_id_seq PRIMARY KEY,
     login text not null,
     name text,
     email text,
-    birthday date
+    birthday date,
+    fingerprint varchar(64)
     );
 
 CREATE TABLE IF NOT EXISTS films (
-    id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    id INTEGER DEFAULT NEXT VALUE FOR films_id_seq PRIMARY KEY,
     name text NOT NULL,
     description varchar(200),
     releasedate date NOT NULL,
-    duration int NOT NULL
+    duration int NOT NULL,
+    fingerprint varchar(64)
 );
 
 CREATE TABLE IF NOT EXISTS mpa (
@@ -53,3 +58,15 @@ CREATE TABLE IF NOT EXISTS friends (
     PRIMARY KEY (user_id, friend_id)
     );
 
+ALTER TABLE users ADD COLUMN IF NOT EXISTS fingerprint varchar(64);
+ALTER TABLE films ADD COLUMN IF NOT EXISTS fingerprint varchar(64);
+CREATE INDEX IF NOT EXISTS users_fingerprint_idx ON users (fingerprint);
+CREATE INDEX IF NOT EXISTS films_fingerprint_idx ON films (fingerprint);
+
+ALTER TABLE users ALTER COLUMN id DROP IDENTITY;
+ALTER TABLE films ALTER COLUMN id DROP IDENTITY;
+ALTER TABLE users ALTER COLUMN id SET DEFAULT NEXT VALUE FOR users_id_seq;
+ALTER TABLE films ALTER COLUMN id SET DEFAULT NEXT VALUE FOR films_id_seq;
+
+ALTER TABLE films ADD COLUMN IF NOT EXISTS like_count BIGINT DEFAULT 0 NOT NULL;
+CREATE INDEX IF NOT EXISTS films_like_count_idx ON films (like_count DESC, id);
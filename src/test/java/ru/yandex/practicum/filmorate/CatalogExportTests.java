@@ -0,0 +1,108 @@
+package ru.yandex.practicum.filmorate;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.service.CatalogExportService;
+
+import java.io.OutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// выгрузка 1 000 000 фильмов при маленькой куче; запускается профилем export-test:
+// mvn -B test -Pexport-test
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:file:./target/export-test/filmorate-${random.uuid};CACHE_SIZE=8192",
+        "filmorate.export.fetch-size=500",
+        "filmorate.export.chunk-size=500"
+})
+@EnabledIfSystemProperty(named = "filmorate.export-test", matches = "true")
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+@Slf4j
+public class CatalogExportTests {
+    private static final int FILMS = 1_000_000;
+
+    private final CatalogExportService catalogExportService;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void exportMillionFilmsTest() throws Exception {
+        jdbcTemplate.update("INSERT INTO films (id, name, description, releasedate, duration) " +
+                "SELECT x, CONCAT('Фильм ', x), 'Описание', DATE '2000-01-01', 90 + MOD(x, 60) " +
+                "FROM SYSTEM_RANGE(1, ?)", FILMS);
+        jdbcTemplate.update("INSERT INTO film_mpa (film_id, mpa_id) SELECT x, MOD(x, 5) + 1 FROM SYSTEM_RANGE(1, ?)",
+                FILMS);
+        jdbcTemplate.update("INSERT INTO film_genre (film_id, genre_id) SELECT x, MOD(x, 6) + 1 FROM SYSTEM_RANGE(1, ?)",
+                FILMS);
+        log.info("Максимальный размер кучи {} МБ", Runtime.getRuntime().maxMemory() / (1024 * 1024));
+
+        ElementCounter ndjson = new ElementCounter();
+        assertEquals(FILMS, catalogExportService.exportFilms(ndjson, CatalogExportService.Format.NDJSON));
+        assertEquals(FILMS, ndjson.lines);
+        assertEquals(FILMS, ndjson.elements);
+
+        ElementCounter json = new ElementCounter();
+        assertEquals(FILMS, catalogExportService.exportFilms(json, CatalogExportService.Format.JSON));
+        assertEquals('[', json.first);
+        assertEquals(']', json.last);
+        assertEquals(FILMS, json.elements);
+    }
+
+    // считает объекты верхнего уровня в потоке JSON/NDJSON, не сохраняя сам вывод
+    private static class ElementCounter extends OutputStream {
+        private int depth;
+        private boolean inString;
+        private boolean escaped;
+        private long elements;
+        private long lines;
+        private int first = -1;
+        private int last = -1;
+
+        @Override
+        public void write(int b) {
+            if (first < 0) {
+                first = b;
+            }
+            last = b;
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+                return;
+            }
+            switch (b) {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':
+                    depth++;
+                    break;
+                case '}':
+                    if (--depth == 0) {
+                        elements++;
+                    }
+                    break;
+                case '\n':
+                    lines++;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package ru.yandex.practicum.filmorate;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.exception.LikeBufferOverflowException;
+import ru.yandex.practicum.filmorate.jdbc.JdbcProfiler;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.film.LikeWriteBuffer;
+import ru.yandex.practicum.filmorate.storage.id.IdAllocator;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+@SpringBootTest(properties = {
+        "filmorate.jdbc.profiler.enabled=true",
+        "filmorate.likes.write-behind.enabled=true",
+        "filmorate.likes.write-behind.max-pending=5",
+        "filmorate.likes.write-behind.capacity=6",
+        "filmorate.likes.write-behind.flush-interval-ms=600000"
+})
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class LikeWriteBehindTests {
+    private final UserDbStorage userStorage;
+    private final FilmDbStorage filmStorage;
+    @SpyBean
+    private LikeWriteBuffer likeBuffer;
+    private final LikeIndex likeIndex;
+    private final JdbcProfiler jdbcProfiler;
+    private final JdbcTemplate jdbcTemplate;
+    private final IdAllocator filmIdAllocator;
+    private final IdAllocator userIdAllocator;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 1; i <= 6; i++) {
+            userStorage.create(new User(null, "login" + i, "name" + i, "ya" + i + "@ya.ru",
+                    LocalDate.of(1900,01,01), null));
+        }
+        filmStorage.create(new Film(null, "Какой-то фильм", "Какое-то описание",
+                LocalDate.of(1900,01,01),120, null, null, null));
+    }
+
+    @AfterEach
+    void tearDown() {
+        likeBuffer.flush();
+        jdbcTemplate.update("DELETE FROM LIKES");
+        jdbcTemplate.update("DELETE FROM FILMS");
+        jdbcTemplate.update("DELETE FROM USERS");
+        filmIdAllocator.resync();
+        userIdAllocator.resync();
+        filmStorage.reloadIds();
+        userStorage.reloadIds();
+        likeIndex.reload();
+    }
+
+    @Test
+    public void bufferedLikeIsVisibleBeforeFlushTest() {
+        filmStorage.addLike(1L, 1L);
+
+        assertEquals(0, countLikesInDb(), "Лайк записан в базу раньше времени");
+        assertEquals(1L, filmStorage.findFilmById(1L).getRate(), "Отложенный лайк не виден при чтении");
+        assertEquals(1L, filmStorage.getLikeCounts().get(1L), "Отложенный лайк не виден при чтении");
+
+        likeBuffer.flush();
+        assertEquals(1, countLikesInDb(), "Лайк не записан в базу");
+        assertEquals(1L, filmStorage.findFilmById(1L).getRate(), "Лайк посчитан дважды");
+    }
+
+    @Test
+    public void likeAndUnlikeCancelOutTest() {
+        filmStorage.addLike(1L, 1L);
+        assertTrue(filmStorage.deleteLike(1L, 1L), "Лайк не удален");
+        assertEquals(0, likeBuffer.getPendingCount(), "Лайк и снятие лайка не сократились");
+        assertEquals(0L, filmStorage.findFilmById(1L).getRate(), "Значение не совпадает");
+
+        filmStorage.addLike(1L, 2L);
+        likeBuffer.flush();
+        assertTrue(filmStorage.deleteLike(1L, 2L), "Лайк не удален");
+        filmStorage.addLike(1L, 2L);
+        assertEquals(0, likeBuffer.getPendingCount(), "Снятие лайка и лайк не сократились");
+        assertEquals(1L, filmStorage.findFilmById(1L).getRate(), "Значение не совпадает");
+
+        assertFalse(filmStorage.deleteLike(1L, 3L), "Удален несуществующий лайк");
+        assertThrows(DuplicateKeyException.class, () -> filmStorage.addLike(1L, 2L));
+    }
+
+    @Test
+    public void deleteBufferedThenFlushTest() {
+        filmStorage.addLike(1L, 1L);
+        filmStorage.addLike(1L, 2L);
+        likeBuffer.flush();
+
+        assertTrue(filmStorage.deleteLike(1L, 1L), "Лайк не удален");
+        assertEquals(1L, filmStorage.findFilmById(1L).getRate(), "Снятие лайка не видно при чтении");
+        assertEquals(2, countLikesInDb(), "Снятие лайка записано в базу раньше времени");
+
+        likeBuffer.flush();
+        assertEquals(1, countLikesInDb(), "Снятие лайка не записано в базу");
+        assertEquals(1L, filmStorage.findFilmById(1L).getRate(), "Значение не совпадает");
+    }
+
+    @Test
+    public void flushOnSizeThresholdTest() throws InterruptedException {
+        for (long userId = 1; userId <= 5; userId++) {
+            filmStorage.addLike(1L, userId);
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (countLikesInDb() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(5, countLikesInDb(), "Буфер не записан при заполнении");
+        assertEquals(5L, filmStorage.findFilmById(1L).getRate(), "Значение не совпадает");
+    }
+
+    // после остановки планировщика заполненный буфер записывается в потоке лайка, а не падает с ошибкой
+    @Test
+    public void flushAfterStopTest() throws InterruptedException {
+        likeBuffer.stop();
+        try {
+            for (long userId = 1; userId <= 5; userId++) {
+                filmStorage.addLike(1L, userId);
+            }
+            assertEquals(5, countLikesInDb(), "Буфер не записан после остановки планировщика");
+            assertEquals(0, likeBuffer.getPendingCount(), "Буфер не очищен");
+        } finally {
+            likeBuffer.start();
+        }
+    }
+
+    // лайк, который база отвергла (пользователь удален после лайка), выбрасывается и не блокирует остальные
+    @Test
+    public void rejectedLikeIsDroppedOnFlushTest() {
+        filmStorage.addLike(1L, 1L);
+        filmStorage.addLike(1L, 2L);
+        jdbcTemplate.update("DELETE FROM USERS WHERE id = 2");
+
+        likeBuffer.flush();
+        assertEquals(0, likeBuffer.getPendingCount(), "Отвергнутый лайк остался в буфере");
+        assertEquals(1, countLikesInDb(), "Лайк не записан в базу");
+        assertFalse(likeIndex.contains(1L, 2L), "Отвергнутый лайк остался в индексе");
+        assertEquals(1L, filmStorage.findFilmById(1L).getRate(), "Значение не совпадает");
+
+        filmStorage.addLike(1L, 3L);
+        likeBuffer.flush();
+        assertEquals(2, countLikesInDb(), "Буфер не записывается после отвергнутого лайка");
+    }
+
+    // пока база недоступна, буфер не растет дальше capacity: лишние изменения отклоняются
+    @Test
+    public void bufferOverflowTest() {
+        jdbcTemplate.execute("ALTER TABLE LIKES RENAME TO LIKES_OFF");
+        try {
+            for (long userId = 1; userId <= 6; userId++) {
+                filmStorage.addLike(1L, userId);
+            }
+            assertThrows(LikeBufferOverflowException.class, () -> filmStorage.deleteLike(1L, 1L));
+            assertEquals(6, likeBuffer.getPendingCount(), "Буфер вырос сверх предела");
+        } finally {
+            jdbcTemplate.execute("ALTER TABLE LIKES_OFF RENAME TO LIKES");
+        }
+
+        likeBuffer.flush();
+        assertEquals(0, likeBuffer.getPendingCount(), "Буфер не записан после восстановления базы");
+        assertEquals(6, countLikesInDb(), "Лайки потеряны");
+        assertEquals(6L, filmStorage.findFilmById(1L).getRate(), "Значение не совпадает");
+    }
+
+    // запись буфера между чтением строк фильма и поправкой буфера не теряет лайк и не считает его дважды
+    @Test
+    public void flushBetweenReadAndBufferCorrectionTest() {
+        filmStorage.addLike(1L, 1L);
+        likeBuffer.flush();
+        filmStorage.addLike(1L, 2L);
+        doAnswer(invocation -> {
+            likeBuffer.flush();
+            return invocation.callRealMethod();
+        }).when(likeBuffer).countLikes(any(), any());
+
+        assertEquals(2L, filmStorage.findFilmById(1L).getRate(), "Лайк потерян при записи буфера во время чтения");
+        assertEquals(2, countLikesInDb(), "Лайк не записан в базу");
+
+        filmStorage.deleteLike(1L, 2L);
+        assertEquals(1L, filmStorage.findFilmsByIds(List.of(1L)).get(0).getRate(),
+                "Снятие лайка потеряно при записи буфера во время чтения");
+    }
+
+    // лайк в буфер не обращается к базе
+    @Test
+    public void bufferedLikeWithoutQueryTest() {
+        JdbcProfiler.Scope like = jdbcProfiler.profile("like", () -> likeBuffer.addLike(1L, 1L));
+        JdbcProfiler.Scope unlike = jdbcProfiler.profile("unlike", () -> likeBuffer.deleteLike(1L, 1L));
+        assertEquals(0, like.getStatements() + unlike.getStatements(), "Отложенный лайк обратился к базе");
+    }
+
+    // одновременные лайки и снятия лайков одних и тех же пар не дают лишних изменений счетчика
+    // и DuplicateKeyException: после записи буфера счетчик совпадает с таблицей LIKES и индексом
+    @Test
+    public void concurrentLikeAndUnlikeTest() throws Exception {
+        filmStorage.addLike(1L, 1L);
+        likeBuffer.flush();
+        int threads = 8;
+        CyclicBarrier start = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 500; i++) {
+                        long userId = 1 + (thread + i) % 3;
+                        if (i % 2 == 0) {
+                            try {
+                                filmStorage.addLike(1L, userId);
+                            } catch (DuplicateKeyException e) {
+                                // лайк уже поставлен другим потоком
+                            }
+                        } else {
+                            filmStorage.deleteLike(1L, userId);
+                        }
+                        if (i % 100 == 0) {
+                            likeBuffer.flush();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long expected = likeIndex.getUsers(1L).size();
+        assertEquals(expected, filmStorage.findFilmById(1L).getRate(), "Счетчик расходится с индексом");
+        likeBuffer.flush();
+        assertEquals(expected, countLikesInDb(), "Таблица расходится с индексом");
+        assertEquals(expected, jdbcTemplate.queryForObject("select like_count from films where id = 1", Long.class),
+                "like_count расходится с таблицей");
+    }
+
+    private int countLikesInDb() {
+        return jdbcTemplate.queryForObject("select count(*) from likes", Integer.class);
+    }
+}
@@ -0,0 +1,212 @@
+package ru.yandex.practicum.filmorate;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import ru.yandex.practicum.filmorate.controller.FilmController;
+import ru.yandex.practicum.filmorate.jdbc.JdbcProfiler;
+import ru.yandex.practicum.filmorate.metrics.FilmorateMetrics;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.SingleFlight;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// нагрузочный тест: 32 одновременных запроса одного фильма, пользователя и GET /films/popular через бины
+// FilmService, UserService и FilmController. Кэши фильмов и JSON выключены, чтобы каждая загрузка шла в базу.
+// На время прогона хранилище сервиса подменяется медленной заглушкой, которая считает загрузки и SQL-запросы,
+// а SingleFlight сервиса - включенным или выключенным
+@SpringBootTest(properties = {
+        "filmorate.jdbc.profiler.enabled=true",
+        "filmorate.films.cache.enabled=false",
+        "filmorate.json.cache.enabled=false"
+})
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+@Slf4j
+public class ThunderingHerdTests {
+    private static final int CALLERS = 32;
+    private static final long LOAD_DELAY_MS = 200;
+
+    private final FilmStorage filmStorage;
+    private final UserStorage userStorage;
+    private final FilmorateMetrics metrics;
+    private final JdbcProfiler jdbcProfiler;
+    private final FilmService filmService;
+    private final UserService userService;
+    private final FilmController filmController;
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final AtomicInteger statements = new AtomicInteger();
+
+    // контекст и база общие для всех тестов класса, данные создаются один раз
+    @BeforeEach
+    void setUp() {
+        if (filmStorage.findAll().isEmpty()) {
+            userStorage.create(new User(null, "login", "name", "ya@ya.ru", LocalDate.of(1900,01,01), null));
+            for (int i = 1; i <= 3; i++) {
+                filmService.create(new Film(null, "Фильм " + i, "Описание", LocalDate.of(1900,01,01), 120, null,
+                        new Mpa(1L, null), List.of(new Genre((long) i, null))));
+            }
+        }
+    }
+
+    @Test
+    public void findFilmByIdHerdTest() throws Exception {
+        int[] without = filmHerd(false, () -> filmService.findFilmById(1L).getName());
+        int[] with = filmHerd(true, () -> filmService.findFilmById(1L).getName());
+        log.info("GET /films/1, одновременных запросов {}: без объединения загрузок {}, SQL-запросов {}; " +
+                "с объединением загрузок {}, SQL-запросов {}", CALLERS, without[0], without[1], with[0], with[1]);
+        assertCoalesced(without, with);
+    }
+
+    @Test
+    public void findPopularFilmsHerdTest() throws Exception {
+        int[] without = filmHerd(false, this::popular);
+        int[] with = filmHerd(true, this::popular);
+        log.info("GET /films/popular, одновременных запросов {}: без объединения загрузок {}, SQL-запросов {}; " +
+                "с объединением загрузок {}, SQL-запросов {}", CALLERS, without[0], without[1], with[0], with[1]);
+        assertCoalesced(without, with);
+    }
+
+    @Test
+    public void findUserByIdHerdTest() throws Exception {
+        int[] without = userHerd(false);
+        int[] with = userHerd(true);
+        log.info("GET /users/1, одновременных запросов {}: без объединения загрузок {}, SQL-запросов {}; " +
+                "с объединением загрузок {}, SQL-запросов {}", CALLERS, without[0], without[1], with[0], with[1]);
+        assertCoalesced(without, with);
+    }
+
+    private void assertCoalesced(int[] without, int[] with) {
+        assertEquals(CALLERS, without[0], "Без объединения каждый запрос должен загружать данные сам");
+        assertTrue(with[0] <= 2, "Одновременные запросы не объединены: загрузок " + with[0]);
+        assertTrue(with[1] * 10 <= without[1], "Число SQL-запросов не уменьшилось: " + with[1] + " из " + without[1]);
+    }
+
+    // ответ GET /films/popular?count=3
+    private String popular() {
+        return new String(filmController.findPopularFilms(3, new ServletWebRequest(
+                new MockHttpServletRequest("GET", "/films/popular"), new MockHttpServletResponse())).getBody());
+    }
+
+    // {CALLERS} потоков одновременно выполняют {request} через FilmService с медленным хранилищем фильмов;
+    // результат - число загрузок и SQL-запросов
+    private int[] filmHerd(boolean singleFlight, Callable<String> request) throws Exception {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("filmStorage", slow(FilmStorage.class, filmStorage, Set.of("findFilmById", "findFilmsByIds")));
+        fields.put("filmFlight", new SingleFlight<>("film", metrics, singleFlight));
+        fields.put("filmsFlight", new SingleFlight<>("films", metrics, singleFlight));
+        return withFields(filmService, fields, request);
+    }
+
+    private int[] userHerd(boolean singleFlight) throws Exception {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("userStorage", slow(UserStorage.class, userStorage, Set.of("findUserById")));
+        fields.put("userFlight", new SingleFlight<>("user", metrics, singleFlight));
+        return withFields(userService, fields, () -> userService.findUserById(1L).getLogin());
+    }
+
+    // поля {fields} бина {service} подменяются на время прогона {request} и затем восстанавливаются
+    private int[] withFields(Object service, Map<String, Object> fields, Callable<String> request) throws Exception {
+        Map<String, Object> original = new LinkedHashMap<>();
+        fields.forEach((name, value) -> {
+            original.put(name, ReflectionTestUtils.getField(service, name));
+            ReflectionTestUtils.setField(service, name, value);
+        });
+        try {
+            return run(request);
+        } finally {
+            original.forEach((name, value) -> ReflectionTestUtils.setField(service, name, value));
+        }
+    }
+
+    private int[] run(Callable<String> request) throws Exception {
+        String expected = request.call();
+        loads.set(0);
+        statements.set(0);
+        CyclicBarrier start = new CyclicBarrier(CALLERS);
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return request.call();
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get(30, TimeUnit.SECONDS), "Ответ не совпадает");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return new int[]{loads.get(), statements.get()};
+    }
+
+    // хранилище, у которого методы {slowMethods} выполняются не быстрее LOAD_DELAY_MS и считаются вместе
+    // со своими SQL-запросами
+    @SuppressWarnings("unchecked")
+    private <T> T slow(Class<T> type, T storage, Set<String> slowMethods) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (!slowMethods.contains(method.getName())) {
+                return invoke(method, storage, args);
+            }
+            loads.incrementAndGet();
+            Object[] result = new Object[1];
+            statements.addAndGet(jdbcProfiler.profile("herd", () -> {
+                try {
+                    Thread.sleep(LOAD_DELAY_MS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                result[0] = invoke(method, storage, args);
+            }).getStatements());
+            return result[0];
+        });
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}